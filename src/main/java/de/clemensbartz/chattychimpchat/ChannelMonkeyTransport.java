@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Monkey transport over a non-blocking SocketChannel.
+ *
+ * Commands are encoded straight into a reusable direct buffer, ASCII characters and numbers
+ * without any intermediate String, and responses are assembled in reusable buffers as well.
+ * Writing a coordinate command and reading its response therefore allocate nothing beyond the
+ * selector's own bookkeeping when it has to wait for the socket.
+ */
+final class ChannelMonkeyTransport implements MonkeyTransport {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    // The stream transport uses the platform charset as well.
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final SocketChannel channel;
+    // Separate selectors so that a reader and a writer can wait at the same time.
+    private final Selector readSelector;
+    private final Selector writeSelector;
+
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] digits = new byte[11];
+
+    // The bytes of the line being read, which ready() may have started.
+    private byte[] lineBytes = new byte[256];
+    private int lineLength = 0;
+    private boolean lineComplete = false;
+    private boolean endOfStream = false;
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * Create a new ChannelMonkeyTransport.
+     *
+     * @param channel the already connected channel on which to send protocol messages. It is
+     *                switched to non-blocking mode.
+     * @throws java.io.IOException if there is an issue setting up the channel
+     */
+    ChannelMonkeyTransport(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        readSelector = Selector.open();
+        writeSelector = Selector.open();
+        channel.register(readSelector, SelectionKey.OP_READ);
+        channel.register(writeSelector, SelectionKey.OP_WRITE);
+        // Start with nothing to read.
+        in.flip();
+    }
+
+    @Override
+    public void append(String text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                // Rare enough to not bother avoiding the copy.
+                put(text.substring(i).getBytes(CHARSET));
+                return;
+            }
+            put((byte) c);
+        }
+    }
+
+    @Override
+    public void append(int value) throws IOException {
+        if (value == Integer.MIN_VALUE) {
+            append(Integer.toString(value));
+            return;
+        }
+        if (value < 0) {
+            put((byte) '-');
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            put(digits[--count]);
+        }
+    }
+
+    @Override
+    public void endCommand() throws IOException {
+        put((byte) '\n');
+    }
+
+    private void put(byte b) throws IOException {
+        if (!out.hasRemaining()) {
+            flush();
+        }
+        out.put(b);
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            put(b);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flip();
+        try {
+            while (out.hasRemaining()) {
+                if (channel.write(out) == 0) {
+                    select(writeSelector);
+                }
+            }
+        } finally {
+            out.compact();
+        }
+    }
+
+    @Override
+    public CharSequence readLine() throws IOException {
+        while (!scanLine() && !endOfStream) {
+            fill(true);
+        }
+        if (!lineComplete && lineLength == 0) {
+            return null;
+        }
+        int length = lineLength;
+        lineLength = 0;
+        lineComplete = false;
+        return decodeLine(length);
+    }
+
+    /**
+     * Move buffered bytes of the current line out of the read buffer, up to its end.
+     *
+     * @return true if the whole line has arrived
+     */
+    private boolean scanLine() {
+        while (!lineComplete && in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                lineComplete = true;
+            } else {
+                if (lineLength == lineBytes.length) {
+                    lineBytes = Arrays.copyOf(lineBytes, lineLength * 2);
+                }
+                lineBytes[lineLength++] = b;
+            }
+        }
+        return lineComplete;
+    }
+
+    /**
+     * Read more from the channel into the empty read buffer.
+     *
+     * @param block whether to wait until something arrives
+     * @return false if nothing arrived
+     */
+    private boolean fill(boolean block) throws IOException {
+        in.clear();
+        int read;
+        try {
+            while ((read = channel.read(in)) == 0 && block) {
+                select(readSelector);
+            }
+        } finally {
+            in.flip();
+        }
+        if (read < 0) {
+            endOfStream = true;
+        }
+        return read != 0;
+    }
+
+    private CharSequence decodeLine(int length) {
+        if (length > 0 && lineBytes[length - 1] == '\r') {
+            length--;
+        }
+        line.setLength(0);
+        for (int i = 0; i < length; i++) {
+            byte b = lineBytes[i];
+            if (b < 0) {
+                // Not plain ASCII, let the charset sort it out.
+                line.setLength(0);
+                line.append(new String(lineBytes, 0, length, CHARSET));
+                break;
+            }
+            line.append((char) b);
+        }
+        return line;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        while (!scanLine() && !endOfStream) {
+            if (!fill(false)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public SelectableChannel getReadChannel() {
+        return channel;
+    }
+
+    private static void select(Selector selector) throws IOException {
+        try {
+            selector.select();
+            selector.selectedKeys().clear();
+        } catch (ClosedSelectorException e) {
+            throw new AsynchronousCloseException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            readSelector.close();
+            writeSelector.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
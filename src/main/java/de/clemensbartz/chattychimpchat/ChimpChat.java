@@ -37,6 +37,9 @@ public class ChimpChat {
     private final IChimpBackend mBackend;
     private static String sAdbLocation;
     private static boolean sNoInitAdb;
+    private static String sMonkeyTransport;
+    private static String sMonkeySessions;
+    private static String sSnapshotTransfer;
 
     private ChimpChat(IChimpBackend backend) {
         this.mBackend = backend;
@@ -50,6 +53,9 @@ public class ChimpChat {
     public static ChimpChat getInstance(Map<String, String> options) {
         sAdbLocation = options.get("adbLocation");
         sNoInitAdb = Boolean.valueOf(options.get("noInitAdb"));
+        sMonkeyTransport = options.get("monkeyTransport");
+        sMonkeySessions = options.get("monkeySessions");
+        sSnapshotTransfer = options.get("snapshotTransfer");
 
         IChimpBackend backend = createBackendByName(options.get("backend"));
         if (backend == null) {
@@ -78,7 +84,13 @@ public class ChimpChat {
 
     private static IChimpBackend createBackendByName(String backendName) {
         if ("adb".equals(backendName)) {
-            return new AdbBackend(sAdbLocation, sNoInitAdb);
+            AdbBackend backend = new AdbBackend(sAdbLocation, sNoInitAdb);
+            backend.getDeviceOptions().setChannelTransport("channel".equals(sMonkeyTransport));
+            if (sMonkeySessions != null) {
+                backend.getDeviceOptions().setMonkeySessions(Integer.parseInt(sMonkeySessions));
+            }
+            backend.getDeviceOptions().setCompressedSnapshots("png".equals(sSnapshotTransfer));
+            return backend;
         } else {
             return null;
         }
@@ -23,18 +23,18 @@ import de.clemensbartz.chattychimpchat.core.ChimpView;
 
 import com.google.common.collect.Lists;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,14 +42,165 @@ import java.util.logging.Logger;
  * Provides a nicer interface to interacting with the low-level network access protocol for talking
  * to the monkey.
  *
- * This class is thread-safe and can handle being called from multiple threads.
+ * This class is thread-safe and can handle being called from multiple threads. Commands from
+ * different threads are written as soon as they are issued and the responses are matched to
+ * the callers in the order the commands were written, so concurrent callers do not wait for
+ * each other's round trips.
+ *
+ * In pipelined mode (see {@link #setPipelined(boolean)}) input events do not wait for their
+ * response at all, so a burst of events costs roughly one round trip instead of one per event.
+ *
+ * The methods ending in {@code Async} never block: they write the command and return a
+ * {@link CompletableFuture} that is completed by whichever thread reads its response. That is
+ * usually the reader thread shared by all managers, see {@link ChimpResponseReader}, but it may
+ * be a thread that waits for a later response of the same manager. Callbacks attached to these
+ * futures must therefore not block.
  */
 public class ChimpManager {
     private static Logger LOG = Logger.getLogger(ChimpManager.class.getName());
 
-    private Socket monkeySocket;
-    private BufferedWriter monkeyWriter;
-    private BufferedReader monkeyReader;
+    // How many responses may be outstanding before writers have to read some of them first.
+    // Must be a power of two.
+    private static final int MAX_PENDING_RESPONSES = 1024;
+
+    // Decoders for the responses to queries.
+    private static final MonkeyResponse.Handler<String> PAYLOAD_OR_NULL =
+            r -> r.isOk() ? r.getPayload() : null;
+    private static final MonkeyResponse.Handler<String> PAYLOAD_OR_ERROR = r -> {
+        if (!r.isOk()) {
+            throw new ChimpException(r.getPayload());
+        }
+        return r.getPayload();
+    };
+    private static final MonkeyResponse.Handler<Collection<String>> TOKENS_OR_EMPTY =
+            r -> r.isOk() ? r.getTokens() : Lists.<String>newArrayList();
+
+    private final MonkeyTransport transport;
+
+    // Guards writing to the transport together with appending to pendingResponses, so that
+    // the responses are always queued in the order the commands went out.
+    private final Object writeLock = new Object();
+    // Guards reading from the transport. Whoever holds it reads the next response on behalf
+    // of whichever caller it belongs to.
+    private final ReentrantLock readLock = new ReentrantLock();
+    // The responses the monkey owes us: the response to command number n goes to slot
+    // n % MAX_PENDING_RESPONSES. Slots are filled by writers holding writeLock and emptied by
+    // the reader holding readLock. An empty slot stands for an input event sent in pipelined
+    // mode, whose response nobody waits for.
+    private final PendingResponse[] pendingResponses = new PendingResponse[MAX_PENDING_RESPONSES];
+    private volatile long writtenCommands = 0;
+    private volatile long readResponses = 0;
+    // Each thread waits for at most one synchronous response at a time, so reuse the handle.
+    private final ThreadLocal<PendingResponse> syncResponse = new ThreadLocal<PendingResponse>();
+
+    private volatile boolean pipelined = false;
+    private final AtomicInteger deferredFailures = new AtomicInteger();
+    // Number of responses that only the shared reader thread is going to read.
+    private final AtomicInteger asyncResponses = new AtomicInteger();
+    // Decodes each response line in place; only used with readLock held.
+    private final MonkeyResponse response = new MonkeyResponse();
+
+    /**
+     * A response the monkey owes us for a command that has already been written.
+     */
+    private static final class PendingResponse {
+        // Only set for responses requested through the asynchronous methods.
+        private final CompletableFuture<Object> future;
+        // Set while a thread uses its reusable synchronous handle, confined to that thread.
+        private boolean claimed = false;
+        // Decodes the response on the reading thread; null if only success or failure is of
+        // interest, in which case the value is the success as a Boolean.
+        private MonkeyResponse.Handler<?> handler;
+        private boolean done;
+        private boolean success;
+        private Object value;
+        private IOException error;
+        // Thrown by the handler, handed on to whoever waits for the response.
+        private RuntimeException handlerError;
+
+        PendingResponse(boolean async) {
+            this.future = async ? new CompletableFuture<Object>() : null;
+        }
+
+        /**
+         * Prepare the handle for a new command.
+         *
+         * @param handler the handler to decode the response with, or null if only success or
+         *                failure is of interest
+         */
+        synchronized void reset(MonkeyResponse.Handler<?> handler) {
+            this.handler = handler;
+            this.done = false;
+            this.success = false;
+            this.value = null;
+            this.error = null;
+            this.handlerError = null;
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Complete the handle with a response. Called by the reading thread, while the response
+         * is still valid.
+         *
+         * @param response the response
+         */
+        void complete(MonkeyResponse response) {
+            boolean ok = response.isOk();
+            Object result = Boolean.valueOf(ok);
+            RuntimeException thrown = null;
+            if (handler != null) {
+                try {
+                    result = handler.handle(response);
+                } catch (RuntimeException e) {
+                    result = null;
+                    thrown = e;
+                }
+            }
+            synchronized (this) {
+                this.success = ok;
+                this.value = result;
+                this.handlerError = thrown;
+                this.done = true;
+            }
+            if (future != null) {
+                if (thrown != null) {
+                    future.completeExceptionally(thrown);
+                } else {
+                    future.complete(result);
+                }
+            }
+        }
+
+        void fail(IOException error) {
+            synchronized (this) {
+                this.error = error;
+                this.done = true;
+            }
+            if (future != null) {
+                future.completeExceptionally(error);
+            }
+        }
+
+        synchronized Object getValue() throws IOException {
+            if (error != null) {
+                throw error;
+            }
+            if (handlerError != null) {
+                throw handlerError;
+            }
+            return value;
+        }
+
+        synchronized boolean getSuccess() throws IOException {
+            if (error != null) {
+                throw error;
+            }
+            return success;
+        }
+    }
 
     /**
      * Create a new ChimpMananger to talk to the specified device.
@@ -58,10 +209,26 @@ public class ChimpManager {
      * @throws java.io.IOException if there is an issue setting up the sockets
      */
     public ChimpManager(Socket monkeySocket) throws IOException {
-        this.monkeySocket = monkeySocket;
-        monkeyWriter =
-                new BufferedWriter(new OutputStreamWriter(monkeySocket.getOutputStream()));
-        monkeyReader = new BufferedReader(new InputStreamReader(monkeySocket.getInputStream()));
+        this(new StreamMonkeyTransport(monkeySocket));
+    }
+
+    /**
+     * Create a new ChimpMananger to talk to the specified device over a SocketChannel.
+     *
+     * Commands and responses go through reusable direct buffers, so encoding touch events and
+     * decoding their responses does not allocate. Note that logging each command at INFO, which
+     * is on by default, still does.
+     *
+     * @param monkeyChannel the already connected channel on which to send protocol messages.
+     *                      It is switched to non-blocking mode.
+     * @throws java.io.IOException if there is an issue setting up the channel
+     */
+    public ChimpManager(SocketChannel monkeyChannel) throws IOException {
+        this(new ChannelMonkeyTransport(monkeyChannel));
+    }
+
+    private ChimpManager(MonkeyTransport transport) {
+        this.transport = transport;
     }
 
     /* Ensure that everything gets shutdown properly */
@@ -84,7 +251,7 @@ public class ChimpManager {
      * @throws java.io.IOException on error communicating with the device
      */
     public boolean touchDown(int x, int y) throws IOException {
-        return sendMonkeyEvent("touch down " + x + " " + y);
+        return sendMonkeyEvent("touch down ", x, y);
     }
 
     /**
@@ -96,7 +263,7 @@ public class ChimpManager {
      * @throws java.io.IOException on error communicating with the device
      */
     public boolean touchUp(int x, int y) throws IOException {
-        return sendMonkeyEvent("touch up " + x + " " + y);
+        return sendMonkeyEvent("touch up ", x, y);
     }
 
     /**
@@ -108,7 +275,7 @@ public class ChimpManager {
      * @throws java.io.IOException on error communicating with the device
      */
     public boolean touchMove(int x, int y) throws IOException {
-        return sendMonkeyEvent("touch move " + x + " " + y);
+        return sendMonkeyEvent("touch move ", x, y);
     }
 
     /**
@@ -120,7 +287,7 @@ public class ChimpManager {
      * @throws java.io.IOException on error communicating with the device
      */
     public boolean touch(int x, int y) throws IOException {
-        return sendMonkeyEvent("tap " + x + " " + y);
+        return sendMonkeyEvent("tap ", x, y);
     }
 
     /**
@@ -170,53 +337,317 @@ public class ChimpManager {
     /**
      * This function allows the communication bridge between the host and the device
      * to be invisible to the script for internal needs.
-     * It splits a command into monkey events and waits for responses for each over an adb tcp socket.
-     * Returns on an error, else continues and sets up last response.
+     * It sends a command to the monkey and waits for its response, which is decoded by the
+     * given handler before the buffer it was read into is reused.
      *
      * @param command the monkey command to send to the device
-     * @return the (unparsed) response returned from the monkey.
+     * @param handler the handler to decode the response with, or null for just the success
+     * @return whatever the handler returned. Anything the handler throws is rethrown here.
      * @throws java.io.IOException on error communicating with the device
      */
-    private String sendMonkeyEventAndGetResponse(String command) throws IOException {
+    @SuppressWarnings("unchecked")
+    private <T> T sendMonkeyQuery(String command, MonkeyResponse.Handler<T> handler)
+            throws IOException {
+        PendingResponse pending = claimSyncResponse(handler);
+        try {
+            writeCommand(command, pending);
+            awaitResponse(pending);
+            return (T) pending.getValue();
+        } finally {
+            pending.claimed = false;
+        }
+    }
+
+    /**
+     * Send a command to the monkey and return immediately. The returned future is completed
+     * by whichever thread reads the response, see the class documentation, with whatever the
+     * handler returns, or exceptionally with whatever it throws or on error communicating with
+     * the device.
+     *
+     * @param command the monkey command to send to the device
+     * @param handler the handler to decode the response with, or null for just the success
+     * @return the future result of the handler
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> sendMonkeyQueryAsync(String command,
+            MonkeyResponse.Handler<T> handler) {
+        PendingResponse pending = new PendingResponse(true);
+        pending.reset(handler);
+        asyncResponses.incrementAndGet();
+        try {
+            writeCommand(command, pending);
+        } catch (IOException e) {
+            asyncResponses.decrementAndGet();
+            pending.fail(e);
+            return (CompletableFuture<T>) (CompletableFuture<?>) pending.future;
+        }
+        ChimpResponseReader.getInstance().wakeUp(this);
+        return (CompletableFuture<T>) (CompletableFuture<?>) pending.future;
+    }
+
+    /**
+     * Get the calling thread's reusable handle for a synchronous response.
+     *
+     * @param handler the handler to decode the response with, or null if only success or
+     *                failure is of interest
+     * @return a handle that must be released by clearing its claimed flag
+     */
+    private PendingResponse claimSyncResponse(MonkeyResponse.Handler<?> handler) {
+        PendingResponse pending = syncResponse.get();
+        if (pending == null) {
+            pending = new PendingResponse(false);
+            syncResponse.set(pending);
+        } else if (pending.claimed) {
+            // A callback of an asynchronous call made a synchronous call on the same thread.
+            pending = new PendingResponse(false);
+        }
+        pending.claimed = true;
+        pending.reset(handler);
+        return pending;
+    }
+
+    /**
+     * Write a single command to the monkey without waiting for its response.
+     *
+     * @param command the monkey command to send to the device
+     * @param pending the handle on which the response will arrive, or null if nobody is going
+     *                to wait for it
+     * @throws java.io.IOException on error communicating with the device
+     */
+    private void writeCommand(String command, PendingResponse pending) throws IOException {
         command = command.trim();
-        LOG.info("Monkey Command: " + command + ".");
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info("Monkey Command: " + command + ".");
+        }
+
+        synchronized (writeLock) {
+            reserveResponse();
+            transport.append(command);
+            transport.endCommand();
+            transport.flush();
+            enqueueResponse(pending);
+        }
+    }
+
+    /**
+     * Write a single command with two numeric arguments to the monkey without waiting for its
+     * response. Unlike {@link #writeCommand(String, PendingResponse)} this does not need to
+     * build the command as a String first.
+     *
+     * @param prefix the command up to and including the space before the first argument
+     * @param x the first argument
+     * @param y the second argument
+     * @param pending the handle on which the response will arrive, or null if nobody is going
+     *                to wait for it
+     * @throws java.io.IOException on error communicating with the device
+     */
+    private void writeCommand(String prefix, int x, int y, PendingResponse pending)
+            throws IOException {
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info("Monkey Command: " + prefix + x + " " + y + ".");
+        }
+
+        synchronized (writeLock) {
+            reserveResponse();
+            transport.append(prefix);
+            transport.append(x);
+            transport.append(" ");
+            transport.append(y);
+            transport.endCommand();
+            transport.flush();
+            enqueueResponse(pending);
+        }
+    }
 
-        // send a single command and get the response
-        monkeyWriter.write(command + "\n");
-        monkeyWriter.flush();
-        return monkeyReader.readLine();
+    /**
+     * Write several commands to the monkey with a single flush, without waiting for their
+     * responses.
+     *
+     * @param commands the monkey commands to send to the device
+     * @param deferred true if nobody is going to wait for these particular responses
+     * @return the handles on which the responses will arrive, in the order of the commands,
+     *         or null if deferred
+     * @throws java.io.IOException on error communicating with the device
+     */
+    private PendingResponse[] writeCommands(List<String> commands, boolean deferred)
+            throws IOException {
+        PendingResponse[] pending = deferred ? null : new PendingResponse[commands.size()];
+        synchronized (writeLock) {
+            for (int i = 0; i < commands.size(); i++) {
+                String command = commands.get(i).trim();
+                if (LOG.isLoggable(Level.INFO)) {
+                    LOG.info("Monkey Command: " + command + ".");
+                }
+                reserveResponse();
+                transport.append(command);
+                transport.endCommand();
+                if (pending != null) {
+                    pending[i] = new PendingResponse(false);
+                    pending[i].reset(null);
+                }
+                enqueueResponse(deferred ? null : pending[i]);
+            }
+            transport.flush();
+        }
+        return pending;
     }
 
     /**
-     * Parse a monkey response string to see if the command succeeded or not.
+     * Make sure there is a free slot in pendingResponses, reading responses if there is not.
+     * Must be called with writeLock held.
      *
-     * @param monkeyResponse the response
-     * @return true if response code indicated success.
+     * @throws java.io.IOException on error communicating with the device
      */
-    private boolean parseResponseForSuccess(String monkeyResponse) {
-        if (monkeyResponse == null) {
+    private void reserveResponse() throws IOException {
+        if (writtenCommands - readResponses < MAX_PENDING_RESPONSES) {
+            return;
+        }
+        // The responses we are about to read may belong to commands that are not flushed yet.
+        transport.flush();
+        while (writtenCommands - readResponses >= MAX_PENDING_RESPONSES) {
+            readLock.lock();
+            try {
+                if (writtenCommands - readResponses >= MAX_PENDING_RESPONSES) {
+                    readNextResponse();
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+        handBackAsyncResponses();
+    }
+
+    /**
+     * Queue the handle for the command that was just written. Must be called with writeLock
+     * held.
+     *
+     * @param pending the handle, or null if nobody is going to wait for the response
+     */
+    private void enqueueResponse(PendingResponse pending) {
+        pendingResponses[(int) (writtenCommands & (MAX_PENDING_RESPONSES - 1))] = pending;
+        writtenCommands++;
+    }
+
+    /**
+     * Wait until the response for the given command has been read. Responses arrive in the
+     * order the commands were written, so while waiting this may read and hand over responses
+     * that belong to other callers.
+     *
+     * @param pending the response to wait for
+     * @throws java.io.IOException on error communicating with the device
+     */
+    private void awaitResponse(PendingResponse pending) throws IOException {
+        while (!pending.isDone()) {
+            readLock.lock();
+            try {
+                if (!pending.isDone()) {
+                    readNextResponse();
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+        handBackAsyncResponses();
+    }
+
+    /**
+     * Make the shared reader thread look at this manager again after another thread has read
+     * from the transport. That thread may have buffered responses the reader is waiting for,
+     * and buffered responses do not make the channel readable.
+     */
+    private void handBackAsyncResponses() {
+        if (hasAsyncResponses()) {
+            ChimpResponseReader.getInstance().wakeUp(this);
+        }
+    }
+
+    /**
+     * Read all responses that have arrived in full, without blocking. Called by the shared
+     * reader thread only; it skips this manager while some other thread is reading.
+     *
+     * @return true if at least one response was read
+     * @throws java.io.IOException on error communicating with the device
+     */
+    boolean pollResponses() throws IOException {
+        if (!readLock.tryLock()) {
             return false;
         }
-        // return on ok
-        if(monkeyResponse.startsWith("OK")) {
-            return true;
+        try {
+            boolean progress = false;
+            while (readResponses < writtenCommands && transport.ready()) {
+                readNextResponse();
+                progress = true;
+            }
+            return progress;
+        } finally {
+            readLock.unlock();
         }
+    }
+
+    /**
+     * @return the channel the responses arrive on, or null if the reader has to poll
+     */
+    SelectableChannel getReadChannel() {
+        return transport.getReadChannel();
+    }
 
-        return false;
+    /**
+     * @return true if there are responses nobody but the shared reader thread will read
+     */
+    boolean hasAsyncResponses() {
+        return asyncResponses.get() > 0;
+    }
+
+    /**
+     * Read one response line and hand it to the oldest pending response. Must be called with
+     * readLock held.
+     *
+     * @throws java.io.IOException on error communicating with the device
+     */
+    private void readNextResponse() throws IOException {
+        if (readResponses >= writtenCommands) {
+            return;
+        }
+        try {
+            response.reset(transport.readLine());
+        } catch (IOException e) {
+            failPendingResponses(e);
+            throw e;
+        }
+        int slot = (int) (readResponses & (MAX_PENDING_RESPONSES - 1));
+        PendingResponse head = pendingResponses[slot];
+        pendingResponses[slot] = null;
+        readResponses++;
+        if (head == null) {
+            if (!response.isOk()) {
+                deferredFailures.incrementAndGet();
+            }
+            return;
+        }
+        if (head.future != null) {
+            asyncResponses.decrementAndGet();
+        }
+        head.complete(response);
     }
 
     /**
-     * Parse a monkey response string to get the extra data returned.
+     * Fail all responses that are still outstanding. Must be called with readLock held.
      *
-     * @param monkeyResponse the response
-     * @return any extra data that was returned, or empty string if there was nothing.
+     * @param e the reason
      */
-    private String parseResponseForExtra(String monkeyResponse) {
-        int offset = monkeyResponse.indexOf(':');
-        if (offset < 0) {
-            return "";
+    private void failPendingResponses(IOException e) {
+        while (readResponses < writtenCommands) {
+            int slot = (int) (readResponses & (MAX_PENDING_RESPONSES - 1));
+            PendingResponse pending = pendingResponses[slot];
+            pendingResponses[slot] = null;
+            readResponses++;
+            if (pending != null) {
+                if (pending.future != null) {
+                    asyncResponses.decrementAndGet();
+                }
+                pending.fail(e);
+            }
         }
-        return monkeyResponse.substring(offset + 1);
     }
 
     /**
@@ -230,19 +661,117 @@ public class ChimpManager {
      * @throws java.io.IOException on error communicating with the device
      */
     private boolean sendMonkeyEvent(String command) throws IOException {
-        synchronized (this) {
-            String monkeyResponse = sendMonkeyEventAndGetResponse(command);
-            return parseResponseForSuccess(monkeyResponse);
+        if (pipelined) {
+            writeCommand(command, null);
+            return true;
+        }
+        PendingResponse pending = claimSyncResponse(null);
+        try {
+            writeCommand(command, pending);
+            awaitResponse(pending);
+            return pending.getSuccess();
+        } finally {
+            pending.claimed = false;
+        }
+    }
+
+    /**
+     * Like {@link #sendMonkeyEvent(String)}, for commands with two numeric arguments. This is
+     * the path taken by touch events, and it does not build any Strings.
+     *
+     * @param prefix the command up to and including the space before the first argument
+     * @param x the first argument
+     * @param y the second argument
+     * @return true on success.
+     * @throws java.io.IOException on error communicating with the device
+     */
+    private boolean sendMonkeyEvent(String prefix, int x, int y) throws IOException {
+        if (pipelined) {
+            writeCommand(prefix, x, y, null);
+            return true;
+        }
+        PendingResponse pending = claimSyncResponse(null);
+        try {
+            writeCommand(prefix, x, y, pending);
+            awaitResponse(pending);
+            return pending.getSuccess();
+        } finally {
+            pending.claimed = false;
+        }
+    }
+
+    /**
+     * Switch pipelined mode on or off.
+     *
+     * In pipelined mode, input events (touches, key presses, typing and wake) are written to
+     * the monkey without waiting for their responses, and return true unless the write itself
+     * failed. Failed events are counted and reported by {@link #drainPipeline()}. Queries still
+     * wait for their own response, which implies waiting for all events sent before them.
+     *
+     * @param pipelined true to stop waiting for responses to input events
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * @return true if input events are currently sent without waiting for their responses
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Wait for the responses of all commands sent so far, including the input events that
+     * were sent in pipelined mode.
+     *
+     * @return true if all input events sent in pipelined mode succeeded since the last call to
+     *         this method
+     * @throws java.io.IOException on error communicating with the device
+     */
+    public boolean drainPipeline() throws IOException {
+        long target;
+        synchronized (writeLock) {
+            target = writtenCommands;
+        }
+        while (readResponses < target) {
+            readLock.lock();
+            try {
+                if (readResponses < target) {
+                    readNextResponse();
+                }
+            } finally {
+                readLock.unlock();
+            }
         }
+        handBackAsyncResponses();
+        return deferredFailures.getAndSet(0) == 0;
+    }
+
+    /**
+     * @return the number of commands that have been written but whose response has not been
+     *         read yet; 0 if this manager is idle
+     */
+    public int getOutstandingResponses() {
+        return (int) Math.max(0, writtenCommands - readResponses);
     }
 
     /**
      * Close all open resources related to this device.
      */
     public void close() throws IOException{
-        monkeySocket.close();
-        monkeyReader.close();
-        monkeyWriter.close();
+        try {
+            transport.close();
+        } finally {
+            // Whoever was reading has been woken up with an error by now.
+            readLock.lock();
+            try {
+                failPendingResponses(new SocketException("Monkey connection closed"));
+            } finally {
+                readLock.unlock();
+            }
+            ChimpResponseReader.getInstance().remove(this);
+        }
     }
 
     /**
@@ -253,29 +782,31 @@ public class ChimpManager {
      * @throws java.io.IOException on error communicating with the device
      */
     public String getVariable(String name) throws IOException {
-        synchronized (this) {
-            String response = sendMonkeyEventAndGetResponse("getvar " + name);
-            if (!parseResponseForSuccess(response)) {
-                return null;
-            }
-            return parseResponseForExtra(response);
-        }
+        return sendMonkeyQuery("getvar " + name, PAYLOAD_OR_NULL);
+    }
+
+    /**
+     * Function to get a static variable from the device and decode it in place, for example
+     * with {@link MonkeyResponse#parseTokenAsInt(int)}, without materializing it as a String.
+     *
+     * @param name name of static variable to get
+     * @param handler decodes the value; only called if the device returned one. It runs on
+     *                whichever thread reads the response and must not block.
+     * @return whatever the handler returned, or null if there was an error
+     * @throws java.io.IOException on error communicating with the device
+     */
+    public <T> T getVariable(String name, final MonkeyResponse.Handler<T> handler)
+            throws IOException {
+        return sendMonkeyQuery("getvar " + name, r -> r.isOk() ? handler.handle(r) : null);
     }
 
     /**
      * Function to get the list of variables from the device.
-     * @return the list of variables as a collection of strings
+     * @return the list of variables as a collection of strings, empty if there was an error
      * @throws java.io.IOException on error communicating with the device
      */
     public Collection<String> listVariable() throws IOException {
-        synchronized (this) {
-            String response = sendMonkeyEventAndGetResponse("listvar");
-            if (!parseResponseForSuccess(response)) {
-                Collections.emptyList();
-            }
-            String extras = parseResponseForExtra(response);
-            return Lists.newArrayList(extras.split(" "));
-        }
+        return sendMonkeyQuery("listvar", TOKENS_OR_EMPTY);
     }
 
     /**
@@ -284,9 +815,7 @@ public class ChimpManager {
      */
     public void done() throws IOException {
         // this command just drops the connection, so handle it here
-        synchronized (this) {
-            sendMonkeyEventAndGetResponse("done");
-        }
+        sendMonkeyQuery("done", null);
     }
 
     /**
@@ -295,9 +824,7 @@ public class ChimpManager {
      */
     public void quit() throws IOException {
         // this command drops the connection, so handle it here
-        synchronized (this) {
-            sendMonkeyEventAndGetResponse("quit");
-        }
+        sendMonkeyQuery("quit", null);
     }
 
     /**
@@ -309,7 +836,7 @@ public class ChimpManager {
      * @throws java.io.IOException on error communicating with the device
      */
     public boolean tap(int x, int y) throws IOException {
-        return sendMonkeyEvent("tap " + x + " " + y);
+        return sendMonkeyEvent("tap ", x, y);
     }
 
     /**
@@ -362,18 +889,11 @@ public class ChimpManager {
 
     /**
      * Retrieves the list of view ids from the current application.
-     * @return the list of view ids as a collection of strings
+     * @return the list of view ids as a collection of strings, empty if there was an error
      * @throws java.io.IOException on error communicating with the device
      */
     public Collection<String> listViewIds() throws IOException {
-        synchronized (this) {
-            String response = sendMonkeyEventAndGetResponse("listviews");
-            if (!parseResponseForSuccess(response)) {
-                Collections.emptyList();
-            }
-            String extras = parseResponseForExtra(response);
-            return Lists.newArrayList(extras.split(" "));
-        }
+        return sendMonkeyQuery("listviews", TOKENS_OR_EMPTY);
     }
 
     /**
@@ -386,18 +906,38 @@ public class ChimpManager {
      * @throws java.io.IOException on error communicating with the device
      */
     public String queryView(String idType, List<String> ids, String query) throws IOException {
+        return sendMonkeyQuery(buildQueryViewCommand(idType, ids, query), PAYLOAD_OR_ERROR);
+    }
+
+    /**
+     * Queries the on-screen view with the given id and decodes the response in place, without
+     * materializing it as a String first.
+     * @param idType The type of ID to query the view by
+     * @param ids The view id of the view
+     * @param query the query
+     * @param handler decodes the response; only called if the query succeeded. It runs on
+     *                whichever thread reads the response and must not block.
+     * @return whatever the handler returned
+     * @throws java.io.IOException on error communicating with the device
+     * @throws ChimpException if the monkey reports an error
+     */
+    public <T> T queryView(String idType, List<String> ids, String query,
+            final MonkeyResponse.Handler<T> handler) throws IOException {
+        return sendMonkeyQuery(buildQueryViewCommand(idType, ids, query), r -> {
+            if (!r.isOk()) {
+                throw new ChimpException(r.getPayload());
+            }
+            return handler.handle(r);
+        });
+    }
+
+    private static String buildQueryViewCommand(String idType, List<String> ids, String query) {
         StringBuilder monkeyCommand = new StringBuilder("queryview " + idType + " ");
         for(String id : ids) {
             monkeyCommand.append(id).append(" ");
         }
         monkeyCommand.append(query);
-        synchronized (this) {
-            String response = sendMonkeyEventAndGetResponse(monkeyCommand.toString());
-            if (!parseResponseForSuccess(response)) {
-                throw new ChimpException(parseResponseForExtra(response));
-            }
-            return parseResponseForExtra(response);
-        }
+        return monkeyCommand.toString();
     }
 
     /**
@@ -405,17 +945,15 @@ public class ChimpManager {
      * @return the root view of the device
      */
     public IChimpView getRootView() throws IOException {
-        synchronized(this) {
-            String response = sendMonkeyEventAndGetResponse("getrootview");
-            String extra = parseResponseForExtra(response);
-            List<String> ids = Arrays.asList(extra.split(" "));
-            if (!parseResponseForSuccess(response) || ids.size() != 2) {
-                throw new ChimpException(extra);
+        List<String> ids = sendMonkeyQuery("getrootview", r -> {
+            if (!r.isOk() || r.getTokenCount() != 2) {
+                throw new ChimpException(r.getPayload());
             }
-            ChimpView root = new ChimpView(ChimpView.ACCESSIBILITY_IDS, ids);
-            root.setManager(this);
-            return root;
-        }
+            return r.getTokens();
+        });
+        ChimpView root = new ChimpView(ChimpView.ACCESSIBILITY_IDS, ids);
+        root.setManager(this);
+        return root;
     }
 
     /**
@@ -423,16 +961,360 @@ public class ChimpManager {
      * @return A string containing the accessibility ids of the views with the given text
      */
     public String getViewsWithText(String text) throws IOException {
-        synchronized(this) {
-            // Monkey has trouble parsing a single word in quotes
-            if (text.split(" ").length > 1) {
-                text = "\"" + text + "\"";
+        // Monkey has trouble parsing a single word in quotes
+        if (text.split(" ").length > 1) {
+            text = "\"" + text + "\"";
+        }
+        return sendMonkeyQuery("getviewswithtext " + text, PAYLOAD_OR_ERROR);
+    }
+
+    /**
+     * Send a touch down event at the specified location without blocking.
+     *
+     * @param x the x coordinate of where to click
+     * @param y the y coordinate of where to click
+     * @return the future success or not
+     */
+    public CompletableFuture<Boolean> touchDownAsync(int x, int y) {
+        return sendMonkeyEventForSuccessAsync("touch down " + x + " " + y);
+    }
+
+    /**
+     * Send a touch up event at the specified location without blocking.
+     *
+     * @param x the x coordinate of where to click
+     * @param y the y coordinate of where to click
+     * @return the future success or not
+     */
+    public CompletableFuture<Boolean> touchUpAsync(int x, int y) {
+        return sendMonkeyEventForSuccessAsync("touch up " + x + " " + y);
+    }
+
+    /**
+     * Send a touch move event at the specified location without blocking.
+     *
+     * @param x the x coordinate of where to click
+     * @param y the y coordinate of where to click
+     * @return the future success or not
+     */
+    public CompletableFuture<Boolean> touchMoveAsync(int x, int y) {
+        return sendMonkeyEventForSuccessAsync("touch move " + x + " " + y);
+    }
+
+    /**
+     * Send a tap event at the specified location without blocking.
+     *
+     * @param x the x coordinate of where to click
+     * @param y the y coordinate of where to click
+     * @return the future success or not
+     */
+    public CompletableFuture<Boolean> tapAsync(int x, int y) {
+        return sendMonkeyEventForSuccessAsync("tap " + x + " " + y);
+    }
+
+    /**
+     * Press a physical button on the device without blocking.
+     *
+     * @param name the name of the button (As specified in the protocol)
+     * @return the future success or not
+     */
+    public CompletableFuture<Boolean> pressAsync(String name) {
+        return sendMonkeyEventForSuccessAsync("press " + name);
+    }
+
+    /**
+     * Press a physical button on the device without blocking.
+     *
+     * @param button the button to press
+     * @return the future success or not
+     */
+    public CompletableFuture<Boolean> pressAsync(PhysicalButton button) {
+        return pressAsync(button.getKeyName());
+    }
+
+    /**
+     * Send a Key Down event for the specified button without blocking.
+     *
+     * @param name the name of the button (As specified in the protocol)
+     * @return the future success or not
+     */
+    public CompletableFuture<Boolean> keyDownAsync(String name) {
+        return sendMonkeyEventForSuccessAsync("key down " + name);
+    }
+
+    /**
+     * Send a Key Up event for the specified button without blocking.
+     *
+     * @param name the name of the button (As specified in the protocol)
+     * @return the future success or not
+     */
+    public CompletableFuture<Boolean> keyUpAsync(String name) {
+        return sendMonkeyEventForSuccessAsync("key up " + name);
+    }
+
+    /**
+     * Type the following string to the monkey without blocking. All the commands needed are
+     * written at once.
+     *
+     * @param text the string to type
+     * @return the future success, true only if every part of the text was typed
+     */
+    public CompletableFuture<Boolean> typeAsync(String text) {
+        CompletableFuture<Boolean> result = CompletableFuture.completedFuture(true);
+        StringTokenizer tok = new StringTokenizer(text, "\n", true);
+        while (tok.hasMoreTokens()) {
+            String line = tok.nextToken();
+            CompletableFuture<Boolean> success;
+            if ("\n".equals(line)) {
+                success = pressAsync(PhysicalButton.ENTER);
+            } else {
+                success = sendMonkeyEventForSuccessAsync("type " + line);
+            }
+            result = result.thenCombine(success, (a, b) -> a && b);
+        }
+        return result;
+    }
+
+    /**
+     * Wake the device up from sleep without blocking.
+     *
+     * @return the future success or not
+     */
+    public CompletableFuture<Boolean> wakeAsync() {
+        return sendMonkeyEventForSuccessAsync("wake");
+    }
+
+    /**
+     * Function to get a static variable from the device without blocking.
+     *
+     * @param name name of static variable to get
+     * @return the future value of the variable, or null if there was an error
+     */
+    public CompletableFuture<String> getVariableAsync(String name) {
+        return sendMonkeyQueryAsync("getvar " + name, PAYLOAD_OR_NULL);
+    }
+
+    /**
+     * Function to get the list of variables from the device without blocking.
+     *
+     * @return the future list of variables as a collection of strings, empty if there was an
+     *         error
+     */
+    public CompletableFuture<Collection<String>> listVariableAsync() {
+        return sendMonkeyQueryAsync("listvar", TOKENS_OR_EMPTY);
+    }
+
+    /**
+     * Retrieves the list of view ids from the current application without blocking.
+     *
+     * @return the future list of view ids as a collection of strings, empty if there was an
+     *         error
+     */
+    public CompletableFuture<Collection<String>> listViewIdsAsync() {
+        return sendMonkeyQueryAsync("listviews", TOKENS_OR_EMPTY);
+    }
+
+    /**
+     * Queries the on-screen view with the given id without blocking.
+     * It's up to the calling method to parse the returned String.
+     *
+     * @param idType The type of ID to query the view by
+     * @param ids The view id of the view
+     * @param query the query
+     * @return the future response from the query, completed exceptionally with a
+     *         {@link ChimpException} if the monkey reports an error
+     */
+    public CompletableFuture<String> queryViewAsync(String idType, List<String> ids, String query) {
+        return sendMonkeyQueryAsync(buildQueryViewCommand(idType, ids, query), PAYLOAD_OR_ERROR);
+    }
+
+    private CompletableFuture<Boolean> sendMonkeyEventForSuccessAsync(String command) {
+        return sendMonkeyQueryAsync(command, null);
+    }
+
+    /**
+     * Start a batch of commands. Nothing is sent until {@link Batch#execute()} is called.
+     *
+     * @return a new, empty batch for this manager
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * A sequence of input events that is written to the monkey with a single write and a single
+     * flush, and whose responses are then read back in one go.
+     *
+     * Each method adds one step and returns the batch, so that steps can be chained:
+     * {@code manager.batch().tap(10, 20).type("hello").press(PhysicalButton.ENTER).execute()}.
+     * A step may need several monkey commands (typing text with line breaks does); it succeeds
+     * only if all of them do. Unlike the individual methods, all steps are sent even if an
+     * earlier one fails.
+     */
+    public final class Batch {
+        private final List<String> commands = Lists.newArrayList();
+        // The step each command in commands belongs to.
+        private int[] commandSteps = new int[16];
+        private int steps = 0;
+
+        private Batch() { }
+
+        private Batch add(String command) {
+            if (commands.size() == commandSteps.length) {
+                commandSteps = Arrays.copyOf(commandSteps, commandSteps.length * 2);
+            }
+            commandSteps[commands.size()] = steps;
+            commands.add(command);
+            return this;
+        }
+
+        private Batch step(String command) {
+            add(command);
+            steps++;
+            return this;
+        }
+
+        /**
+         * Add a touch down event at the specified location.
+         *
+         * @param x the x coordinate of where to click
+         * @param y the y coordinate of where to click
+         * @return this batch
+         */
+        public Batch touchDown(int x, int y) {
+            return step("touch down " + x + " " + y);
+        }
+
+        /**
+         * Add a touch up event at the specified location.
+         *
+         * @param x the x coordinate of where to click
+         * @param y the y coordinate of where to click
+         * @return this batch
+         */
+        public Batch touchUp(int x, int y) {
+            return step("touch up " + x + " " + y);
+        }
+
+        /**
+         * Add a touch move event at the specified location.
+         *
+         * @param x the x coordinate of where to click
+         * @param y the y coordinate of where to click
+         * @return this batch
+         */
+        public Batch touchMove(int x, int y) {
+            return step("touch move " + x + " " + y);
+        }
+
+        /**
+         * Add a tap event at the specified location.
+         *
+         * @param x the x coordinate of where to click
+         * @param y the y coordinate of where to click
+         * @return this batch
+         */
+        public Batch tap(int x, int y) {
+            return step("tap " + x + " " + y);
+        }
+
+        /**
+         * Add a press of a physical button.
+         *
+         * @param name the name of the button (As specified in the protocol)
+         * @return this batch
+         */
+        public Batch press(String name) {
+            return step("press " + name);
+        }
+
+        /**
+         * Add a press of a physical button.
+         *
+         * @param button the button to press
+         * @return this batch
+         */
+        public Batch press(PhysicalButton button) {
+            return press(button.getKeyName());
+        }
+
+        /**
+         * Add a Key Down event for the specified button.
+         *
+         * @param name the name of the button (As specified in the protocol)
+         * @return this batch
+         */
+        public Batch keyDown(String name) {
+            return step("key down " + name);
+        }
+
+        /**
+         * Add a Key Up event for the specified button.
+         *
+         * @param name the name of the button (As specified in the protocol)
+         * @return this batch
+         */
+        public Batch keyUp(String name) {
+            return step("key up " + name);
+        }
+
+        /**
+         * Add typing of the given string as a single step. Unlike
+         * {@link ChimpManager#type(String)}, the lines after one that failed are still typed,
+         * as all commands of a batch are sent before any response is read.
+         *
+         * @param text the string to type
+         * @return this batch
+         */
+        public Batch type(String text) {
+            // The network protocol can't handle embedded line breaks, so we have to handle it
+            // here instead
+            StringTokenizer tok = new StringTokenizer(text, "\n", true);
+            while (tok.hasMoreTokens()) {
+                String line = tok.nextToken();
+                if ("\n".equals(line)) {
+                    add("press " + PhysicalButton.ENTER.getKeyName());
+                } else {
+                    add("type " + line);
+                }
             }
-            String response = sendMonkeyEventAndGetResponse("getviewswithtext " + text);
-            if (!parseResponseForSuccess(response)) {
-                throw new ChimpException(parseResponseForExtra(response));
+            steps++;
+            return this;
+        }
+
+        /**
+         * Add a wake event.
+         *
+         * @return this batch
+         */
+        public Batch wake() {
+            return step("wake");
+        }
+
+        /**
+         * Send all steps to the monkey and wait for their responses.
+         *
+         * In pipelined mode the responses are not waited for; every step is reported as
+         * successful and failures are reported by {@link ChimpManager#drainPipeline()}.
+         *
+         * @return the success of each step, in the order the steps were added
+         * @throws java.io.IOException on error communicating with the device
+         */
+        public boolean[] execute() throws IOException {
+            boolean[] results = new boolean[steps];
+            Arrays.fill(results, true);
+            if (pipelined) {
+                writeCommands(commands, true);
+                return results;
+            }
+            PendingResponse[] pending = writeCommands(commands, false);
+            for (int i = 0; i < pending.length; i++) {
+                awaitResponse(pending[i]);
+                if (!pending[i].getSuccess()) {
+                    results[commandSteps[i]] = false;
+                }
             }
-            return parseResponseForExtra(response);
+            return results;
         }
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single thread that reads the responses to asynchronous commands for all ChimpManagers.
+ *
+ * The thread visits every manager with outstanding asynchronous responses and only reads
+ * responses whose whole line has already arrived, so a partly received response never blocks
+ * it. The channels of managers built on a SocketChannel are registered with one selector, and
+ * while only those managers are waiting the thread blocks on it until one of their sockets
+ * becomes readable. Socket streams give no readiness notification, so while a manager built on
+ * one is waiting, the thread polls, backing off from a short spin up to
+ * {@link #MAX_IDLE_PARK_NS}. When no manager is waiting for anything it blocks until the next
+ * asynchronous command is written.
+ */
+final class ChimpResponseReader implements Runnable {
+    private static final Logger LOG = Logger.getLogger(ChimpResponseReader.class.getName());
+
+    private static final long MIN_IDLE_PARK_NS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final ChimpResponseReader INSTANCE = new ChimpResponseReader();
+
+    private final Set<ChimpManager> managers = new CopyOnWriteArraySet<ChimpManager>();
+    private Thread thread = null;
+    // Set before the thread is started; only the thread selects on it.
+    private Selector selector = null;
+
+    private ChimpResponseReader() { }
+
+    static ChimpResponseReader getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Make sure the reader looks after the given manager, starting the thread if needed.
+     *
+     * @param manager a manager that has just written an asynchronous command, or whose
+     *                responses another thread may have buffered
+     */
+    void wakeUp(ChimpManager manager) {
+        managers.add(manager);
+        Thread current;
+        synchronized (this) {
+            if (thread == null) {
+                try {
+                    selector = Selector.open();
+                } catch (IOException e) {
+                    // Without a selector every manager is polled.
+                    LOG.log(Level.WARNING, "Cannot open a selector for monkey responses", e);
+                }
+                thread = new Thread(this, "ChimpResponseReader");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            current = thread;
+        }
+        if (selector != null) {
+            selector.wakeup();
+        }
+        LockSupport.unpark(current);
+    }
+
+    /**
+     * Stop looking after the given manager.
+     *
+     * @param manager a manager that has been closed
+     */
+    void remove(ChimpManager manager) {
+        managers.remove(manager);
+        Selector selector;
+        synchronized (this) {
+            selector = this.selector;
+        }
+        SelectableChannel channel = manager.getReadChannel();
+        if (selector != null && channel != null) {
+            SelectionKey key = channel.keyFor(selector);
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long idlePark = MIN_IDLE_PARK_NS;
+        while (true) {
+            boolean polling = false;
+            boolean progress = false;
+            for (ChimpManager manager : managers) {
+                if (!manager.hasAsyncResponses()) {
+                    continue;
+                }
+                try {
+                    progress |= manager.pollResponses();
+                } catch (IOException e) {
+                    // The manager has already failed all of its pending responses.
+                    LOG.log(Level.SEVERE, "Error reading monkey responses", e);
+                    remove(manager);
+                    continue;
+                }
+                // A thread that reads for this manager meanwhile calls wakeUp when done, as
+                // what it buffered does not make the channel readable.
+                polling |= manager.hasAsyncResponses() && !register(manager);
+            }
+
+            if (progress) {
+                idlePark = MIN_IDLE_PARK_NS;
+                clearSelected();
+            } else if (polling || selector == null) {
+                clearSelected();
+                LockSupport.parkNanos(idlePark);
+                idlePark = Math.min(idlePark * 2, MAX_IDLE_PARK_NS);
+            } else {
+                // Blocks until a registered socket has data or wakeUp is called; with nothing
+                // waiting that is the next asynchronous command.
+                select();
+                idlePark = MIN_IDLE_PARK_NS;
+            }
+        }
+    }
+
+    /**
+     * Make sure the channel of a manager is registered with the selector.
+     *
+     * @return false if the manager has to be polled instead
+     */
+    private boolean register(ChimpManager manager) {
+        SelectableChannel channel = manager.getReadChannel();
+        if (selector == null || channel == null) {
+            return false;
+        }
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            return true;
+        }
+        try {
+            channel.register(selector, SelectionKey.OP_READ);
+            return true;
+        } catch (CancelledKeyException e) {
+            // The old key goes away with the next selection.
+            return false;
+        } catch (IOException e) {
+            // Closed; the manager fails its responses with the next read.
+            return false;
+        }
+    }
+
+    private void select() {
+        try {
+            selector.select();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error waiting for monkey responses", e);
+            LockSupport.parkNanos(MAX_IDLE_PARK_NS);
+        }
+        selector.selectedKeys().clear();
+    }
+
+    private void clearSelected() {
+        if (selector == null) {
+            return;
+        }
+        try {
+            // Also drops cancelled keys and swallows a pending wakeup that is now handled.
+            selector.selectNow();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error checking for monkey responses", e);
+        }
+        selector.selectedKeys().clear();
+    }
+}
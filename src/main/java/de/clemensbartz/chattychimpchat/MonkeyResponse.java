@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A decoded monkey response line, such as {@code OK}, {@code OK:value} or
+ * {@code ERROR:message}.
+ *
+ * The response is a view over the buffer the line was read into. It is reused for the next
+ * response, so it is only valid inside the {@link Handler} it is passed to. The status and the
+ * space separated tokens of the payload can be inspected without copying anything; only the
+ * methods returning Strings allocate.
+ */
+public final class MonkeyResponse {
+    /**
+     * Turns a response into whatever the caller needs, while the response is still valid.
+     * Handlers run on whichever thread reads the response and must not block.
+     *
+     * @param <T> the type of the result
+     */
+    public interface Handler<T> {
+        /**
+         * @param response the response, only valid during this call
+         * @return the result for the caller
+         */
+        T handle(MonkeyResponse response);
+    }
+
+    private CharSequence line;
+    private boolean ok;
+    // Index of the first payload character, or -1 if it has not been looked for yet.
+    private int payloadStart;
+    // Start and end index of each token, valid once tokenized is set.
+    private int[] tokens = new int[16];
+    private int tokenCount;
+    private boolean tokenized;
+
+    MonkeyResponse() { }
+
+    /**
+     * Point this response at a new line.
+     *
+     * @param line the line without its terminator, or null at the end of the stream
+     */
+    void reset(CharSequence line) {
+        this.line = line;
+        this.ok = line != null && line.length() >= 2 && line.charAt(0) == 'O'
+                && line.charAt(1) == 'K';
+        this.payloadStart = -1;
+        this.tokenized = false;
+    }
+
+    /**
+     * @return true if the response code indicated success
+     */
+    public boolean isOk() {
+        return ok;
+    }
+
+    /**
+     * @return true if the connection ended instead of a response arriving
+     */
+    public boolean isEndOfStream() {
+        return line == null;
+    }
+
+    private int payloadStart() {
+        if (payloadStart < 0) {
+            payloadStart = 0;
+            if (line != null) {
+                int length = line.length();
+                payloadStart = length;
+                for (int i = 0; i < length; i++) {
+                    if (line.charAt(i) == ':') {
+                        payloadStart = i + 1;
+                        break;
+                    }
+                }
+            }
+        }
+        return payloadStart;
+    }
+
+    private int length() {
+        return line == null ? 0 : line.length();
+    }
+
+    /**
+     * @return the number of characters after the first colon, 0 if there is none
+     */
+    public int getPayloadLength() {
+        return length() - payloadStart();
+    }
+
+    /**
+     * @param index the index within the payload
+     * @return the character at that index
+     */
+    public char payloadCharAt(int index) {
+        if (index < 0 || index >= getPayloadLength()) {
+            throw new IndexOutOfBoundsException("Payload index: " + index);
+        }
+        return line.charAt(payloadStart() + index);
+    }
+
+    /**
+     * @param value the text to compare with
+     * @return true if the payload equals the given text
+     */
+    public boolean payloadEquals(CharSequence value) {
+        return regionEquals(payloadStart(), length(), value);
+    }
+
+    /**
+     * @return the payload as a String; empty if there is none
+     */
+    public String getPayload() {
+        return line == null ? "" : line.subSequence(payloadStart(), length()).toString();
+    }
+
+    /**
+     * Append the payload to the given builder without an intermediate String.
+     *
+     * @param builder the builder to append to
+     */
+    public void appendPayloadTo(StringBuilder builder) {
+        if (line != null) {
+            builder.append(line, payloadStart(), length());
+        }
+    }
+
+    private void tokenize() {
+        if (tokenized) {
+            return;
+        }
+        tokenCount = 0;
+        int end = length();
+        int i = payloadStart();
+        while (i < end) {
+            while (i < end && line.charAt(i) == ' ') {
+                i++;
+            }
+            if (i == end) {
+                break;
+            }
+            int start = i;
+            while (i < end && line.charAt(i) != ' ') {
+                i++;
+            }
+            if (tokenCount * 2 == tokens.length) {
+                tokens = Arrays.copyOf(tokens, tokens.length * 2);
+            }
+            tokens[tokenCount * 2] = start;
+            tokens[tokenCount * 2 + 1] = i;
+            tokenCount++;
+        }
+        tokenized = true;
+    }
+
+    /**
+     * @return the number of space separated, non-empty tokens in the payload
+     */
+    public int getTokenCount() {
+        tokenize();
+        return tokenCount;
+    }
+
+    private int tokenStart(int index) {
+        tokenize();
+        if (index < 0 || index >= tokenCount) {
+            throw new IndexOutOfBoundsException("Token index: " + index);
+        }
+        return tokens[index * 2];
+    }
+
+    private int tokenEnd(int index) {
+        tokenize();
+        return tokens[index * 2 + 1];
+    }
+
+    /**
+     * @param index the index of the token
+     * @param value the text to compare with
+     * @return true if the token equals the given text
+     */
+    public boolean tokenEquals(int index, CharSequence value) {
+        return regionEquals(tokenStart(index), tokenEnd(index), value);
+    }
+
+    /**
+     * Parse a token as a decimal int without an intermediate String.
+     *
+     * @param index the index of the token
+     * @return the value of the token
+     * @throws NumberFormatException if the token is not a number that fits an int
+     */
+    public int parseTokenAsInt(int index) {
+        long value = parseTokenAsLong(index);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Out of range: " + getToken(index));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parse a token as a decimal long without an intermediate String.
+     *
+     * @param index the index of the token
+     * @return the value of the token
+     * @throws NumberFormatException if the token is not a number that fits a long
+     */
+    public long parseTokenAsLong(int index) {
+        int start = tokenStart(index);
+        int end = tokenEnd(index);
+        boolean negative = line.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end || end - i > 19) {
+            throw new NumberFormatException("Not a number: " + getToken(index));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a number: " + getToken(index));
+            }
+            // Accumulate negatively so that Long.MIN_VALUE fits.
+            long next = value * 10 - digit;
+            if (value < Long.MIN_VALUE / 10 || next > value) {
+                throw new NumberFormatException("Out of range: " + getToken(index));
+            }
+            value = next;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                throw new NumberFormatException("Out of range: " + getToken(index));
+            }
+            value = -value;
+        }
+        return value;
+    }
+
+    /**
+     * @param index the index of the token
+     * @return the token as a String
+     */
+    public String getToken(int index) {
+        return line.subSequence(tokenStart(index), tokenEnd(index)).toString();
+    }
+
+    /**
+     * @return all tokens of the payload as Strings
+     */
+    public List<String> getTokens() {
+        List<String> result = Lists.newArrayListWithCapacity(getTokenCount());
+        for (int i = 0; i < tokenCount; i++) {
+            result.add(getToken(i));
+        }
+        return result;
+    }
+
+    private boolean regionEquals(int start, int end, CharSequence value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) != value.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the whole response line, or null at the end of the stream
+     */
+    @Override
+    public String toString() {
+        return line == null ? null : line.toString();
+    }
+}
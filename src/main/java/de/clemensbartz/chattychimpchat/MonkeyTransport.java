@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * The connection to the monkey underneath a ChimpManager.
+ *
+ * Commands are written piece by piece with the append methods and terminated with
+ * {@link #endCommand()}. Nothing is guaranteed to reach the device before {@link #flush()}.
+ * Writing and reading may happen at the same time, but each side is only used by one thread
+ * at a time.
+ */
+interface MonkeyTransport {
+    /**
+     * Append text to the command being written.
+     *
+     * @param text the text to append
+     * @throws java.io.IOException on error communicating with the device
+     */
+    void append(String text) throws IOException;
+
+    /**
+     * Append the decimal representation of a number to the command being written.
+     *
+     * @param value the number to append
+     * @throws java.io.IOException on error communicating with the device
+     */
+    void append(int value) throws IOException;
+
+    /**
+     * Terminate the command being written.
+     *
+     * @throws java.io.IOException on error communicating with the device
+     */
+    void endCommand() throws IOException;
+
+    /**
+     * Send everything written so far to the device.
+     *
+     * @throws java.io.IOException on error communicating with the device
+     */
+    void flush() throws IOException;
+
+    /**
+     * Read the next response line, blocking until all of it has arrived.
+     *
+     * @return the line without its terminator, or null at the end of the stream. The returned
+     *         sequence may be reused by the next call to readLine or ready, so it must be
+     *         consumed before that.
+     * @throws java.io.IOException on error communicating with the device
+     */
+    CharSequence readLine() throws IOException;
+
+    /**
+     * Check without blocking whether a whole response line has arrived. What has arrived of
+     * an incomplete line is kept for the next read.
+     *
+     * @return true if {@link #readLine()} would return without blocking
+     * @throws java.io.IOException on error communicating with the device
+     */
+    boolean ready() throws IOException;
+
+    /**
+     * Get the channel the responses arrive on, so that a selector can wait for them. Bytes
+     * that {@link #ready()} or {@link #readLine()} have already taken from it do not make it
+     * readable again.
+     *
+     * @return the non-blocking channel, or null if readiness can only be found by polling
+     *         {@link #ready()}
+     */
+    SelectableChannel getReadChannel();
+
+    /**
+     * Close the connection.
+     *
+     * @throws java.io.IOException on error communicating with the device
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Monkey transport over the streams of a plain socket.
+ */
+final class StreamMonkeyTransport implements MonkeyTransport {
+    private final Socket monkeySocket;
+    private final BufferedWriter monkeyWriter;
+    private final BufferedReader monkeyReader;
+    // The line being read; it may have been started by ready().
+    private final StringBuilder line = new StringBuilder();
+    private boolean lineComplete = false;
+    private boolean endOfStream = false;
+    // Whether line holds the line returned last, to be cleared before the next one.
+    private boolean lineTaken = false;
+
+    /**
+     * Create a new StreamMonkeyTransport.
+     *
+     * @param monkeySocket the already connected socket on which to send protocol messages.
+     * @throws java.io.IOException if there is an issue setting up the streams
+     */
+    StreamMonkeyTransport(Socket monkeySocket) throws IOException {
+        this.monkeySocket = monkeySocket;
+        monkeyWriter =
+                new BufferedWriter(new OutputStreamWriter(monkeySocket.getOutputStream()));
+        monkeyReader = new BufferedReader(new InputStreamReader(monkeySocket.getInputStream()));
+    }
+
+    @Override
+    public void append(String text) throws IOException {
+        monkeyWriter.write(text);
+    }
+
+    @Override
+    public void append(int value) throws IOException {
+        monkeyWriter.write(Integer.toString(value));
+    }
+
+    @Override
+    public void endCommand() throws IOException {
+        monkeyWriter.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        monkeyWriter.flush();
+    }
+
+    @Override
+    public CharSequence readLine() throws IOException {
+        startLine();
+        if (!lineComplete && !endOfStream) {
+            readLineChars(true);
+        }
+        if (!lineComplete && line.length() == 0) {
+            return null;
+        }
+        lineComplete = false;
+        lineTaken = true;
+        if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+            line.setLength(line.length() - 1);
+        }
+        return line;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        startLine();
+        if (!lineComplete && !endOfStream) {
+            readLineChars(false);
+        }
+        return lineComplete || endOfStream;
+    }
+
+    /**
+     * Forget the line returned last, if any.
+     */
+    private void startLine() {
+        if (lineTaken) {
+            line.setLength(0);
+            lineTaken = false;
+        }
+    }
+
+    /**
+     * Append the characters of the current line to it until its end.
+     *
+     * @param block whether to wait for characters, or stop when none are available
+     */
+    private void readLineChars(boolean block) throws IOException {
+        while (block || monkeyReader.ready()) {
+            int c = monkeyReader.read();
+            if (c == -1) {
+                endOfStream = true;
+                return;
+            }
+            if (c == '\n') {
+                lineComplete = true;
+                return;
+            }
+            line.append((char) c);
+        }
+    }
+
+    @Override
+    public SelectableChannel getReadChannel() {
+        // Streams give no readiness notification.
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        monkeySocket.close();
+        monkeyReader.close();
+        monkeyWriter.close();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb;
+
+import de.clemensbartz.chattychimpchat.ChimpManager;
+import de.clemensbartz.chattychimpchat.core.IAsyncChimpDevice;
+import de.clemensbartz.chattychimpchat.core.PhysicalButton;
+import de.clemensbartz.chattychimpchat.core.TouchPressType;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ADB implementation of the IAsyncChimpDevice interface, sharing the monkey connection of an
+ * AdbChimpDevice.
+ */
+public class AdbAsyncChimpDevice implements IAsyncChimpDevice {
+    private final AdbChimpDevice device;
+
+    /**
+     * Create a new AdbAsyncChimpDevice.
+     *
+     * @param device the device whose monkey connection to use.
+     */
+    AdbAsyncChimpDevice(AdbChimpDevice device) {
+        this.device = device;
+    }
+
+    private ChimpManager manager() {
+        return device.getManager();
+    }
+
+    private ChimpManager queryManager() {
+        return device.getQueryManager();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> touch(int x, int y, TouchPressType type) {
+        device.logInput("touch " + x + "," + y + " " + type);
+        switch (type) {
+            case DOWN:
+                return manager().touchDownAsync(x, y);
+            case UP:
+                return manager().touchUpAsync(x, y);
+            case DOWN_AND_UP:
+                return manager().tapAsync(x, y);
+            case MOVE:
+                return manager().touchMoveAsync(x, y);
+        }
+        return CompletableFuture.completedFuture(false);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> press(String keyName, TouchPressType type) {
+        device.logInput("press " + keyName + " " + type);
+        switch (type) {
+            case DOWN_AND_UP:
+                return manager().pressAsync(keyName);
+            case DOWN:
+                return manager().keyDownAsync(keyName);
+            case UP:
+                return manager().keyUpAsync(keyName);
+        }
+        return CompletableFuture.completedFuture(false);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> press(PhysicalButton key, TouchPressType type) {
+        return press(key.getKeyName(), type);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> type(String string) {
+        device.logInput("type " + string);
+        return manager().typeAsync(string);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> wake() {
+        return manager().wakeAsync();
+    }
+
+    @Override
+    public CompletableFuture<String> getProperty(String key) {
+        return queryManager().getVariableAsync(key);
+    }
+
+    @Override
+    public CompletableFuture<Collection<String>> getPropertyList() {
+        return queryManager().listVariableAsync();
+    }
+
+    @Override
+    public CompletableFuture<Collection<String>> getViewIdList() {
+        return queryManager().listViewIdsAsync();
+    }
+
+    @Override
+    public CompletableFuture<String> queryView(String idType, List<String> ids, String query) {
+        return queryManager().queryViewAsync(idType, ids, query);
+    }
+}
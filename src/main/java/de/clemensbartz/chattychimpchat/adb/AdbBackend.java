@@ -18,6 +18,7 @@ package de.clemensbartz.chattychimpchat.adb;
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.TimeoutException;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import com.android.SdkConstants;
 import de.clemensbartz.chattychimpchat.core.IChimpBackend;
@@ -28,6 +29,19 @@ import com.android.ddmlib.IDevice;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
@@ -36,11 +50,13 @@ import java.util.regex.Pattern;
  */
 public class AdbBackend implements IChimpBackend {
     private static Logger LOG = Logger.getLogger(AdbBackend.class.getCanonicalName());
-    // How long to wait each time we check for the device to be connected.
-    private static final int CONNECTION_ITERATION_TIMEOUT_MS = 200;
     private final List<IChimpDevice> devices = Lists.newArrayList();
     private final AndroidDebugBridge bridge;
+    private final DeviceTracker deviceTracker;
     private final boolean initAdb;
+    private final AdbDeviceOptions deviceOptions = new AdbDeviceOptions();
+    // Hands out the local ports for the monkey forwards of all devices of this backend.
+    private final MonkeyPortAllocator portAllocator = new MonkeyPortAllocator();
 
     /**
      * Constructs an AdbBackend with default options.
@@ -70,6 +86,18 @@ public class AdbBackend implements IChimpBackend {
 
         bridge = AndroidDebugBridge.createBridge(
                 adbLocation, true /* forceNewBridge */);
+        deviceTracker = new DeviceTracker(bridge);
+        deviceTracker.start();
+    }
+
+    /**
+     * Get the options used for devices connected from now on. Changes to the returned object
+     * do not affect devices that are already connected.
+     *
+     * @return the device options of this backend
+     */
+    public AdbDeviceOptions getDeviceOptions() {
+        return deviceOptions;
     }
 
     private String findAdb() {
@@ -93,23 +121,6 @@ public class AdbBackend implements IChimpBackend {
         return SdkConstants.FN_ADB;
     }
 
-    /**
-     * Checks the attached devices looking for one whose device id matches the specified regex.
-     *
-     * @param deviceIdRegex the regular expression to match against
-     * @return the Device (if found), or null (if not found).
-     */
-    private IDevice findAttachedDevice(String deviceIdRegex) {
-        Pattern pattern = Pattern.compile(deviceIdRegex);
-        for (IDevice device : bridge.getDevices()) {
-            String serialNumber = device.getSerialNumber();
-            if (pattern.matcher(serialNumber).matches() || serialNumber.equals(deviceIdRegex)) {
-                return device;
-            }
-        }
-        return null;
-    }
-
     public IChimpDevice waitForConnection() throws IOException,
             AdbCommandRejectedException, InterruptedException, TimeoutException {
         return waitForConnection(Integer.MAX_VALUE, ".*");
@@ -118,31 +129,140 @@ public class AdbBackend implements IChimpBackend {
     public IChimpDevice waitForConnection(long timeoutMs, String deviceIdRegex) throws IOException,
             AdbCommandRejectedException, InterruptedException, TimeoutException
     {
-        // Check for default values to guarantee at least two device checking cycles
-        if (timeoutMs < CONNECTION_ITERATION_TIMEOUT_MS) {
-            timeoutMs = CONNECTION_ITERATION_TIMEOUT_MS + 1;
+        // Only online devices are tracked, and we are woken up as soon as one comes online.
+        IDevice device = deviceTracker.awaitDevice(deviceIdRegex, Pattern.compile(deviceIdRegex),
+                timeoutMs);
+        if (device == null) {
+            // Timeout.  Give up.
+            return null;
         }
-        do {
-            IDevice device = findAttachedDevice(deviceIdRegex);
-            // Only return the device when it is online
-            if (device != null && device.getState() == IDevice.DeviceState.ONLINE) {
-                IChimpDevice chimpDevice = new AdbChimpDevice(device);
-                devices.add(chimpDevice);
-                return chimpDevice;
-            }
+        IChimpDevice chimpDevice = new AdbChimpDevice(device, deviceOptions, portAllocator);
+        synchronized (devices) {
+            devices.add(chimpDevice);
+        }
+        return chimpDevice;
+    }
+
+    /**
+     * Wait for several devices and bring them up in parallel: launching the monkey, setting up
+     * the forwards and connecting to it overlap between devices, so this takes about as long
+     * as the slowest device rather than the sum of all of them.
+     *
+     * Devices are picked up as they come online, until enough of them are connected. A device
+     * that fails to come up is logged and not tried again. Devices that are still coming up
+     * when the time is up are abandoned, and disposed of should they come up anyway.
+     *
+     * @param filter selects the devices to connect to
+     * @param count how many devices to connect to
+     * @param timeoutMs how long (in ms) to wait
+     * @param onConnected called with each device as soon as it is ready, or null. It is called
+     *                    on the thread that brought the device up, possibly concurrently for
+     *                    different devices.
+     * @return the connected devices in the order they became ready; fewer than count on timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<IChimpDevice> waitForConnections(Predicate<IDevice> filter, int count,
+            long timeoutMs, final Consumer<IChimpDevice> onConnected) throws InterruptedException {
+        // Compared against the elapsed time, as a deadline overflows for long timeouts.
+        long start = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        // Both guarded by devices, so a device is either connected in time or abandoned.
+        final List<IChimpDevice> connected = Lists.newArrayList();
+        final AtomicBoolean abandoned = new AtomicBoolean(false);
+        Set<String> attempted = Sets.newHashSet();
+        ExecutorService attachers = Executors.newCachedThreadPool();
+        CompletionService<IChimpDevice> attaching =
+                new ExecutorCompletionService<IChimpDevice>(attachers);
+        int pending = 0;
+        try {
+            while (true) {
+                long seenVersion = deviceTracker.getVersion();
+                for (final IDevice device : deviceTracker.getOnlineDevices()) {
+                    if (connectedCount(connected) + pending >= count) {
+                        break;
+                    }
+                    if (attempted.contains(device.getSerialNumber()) || !filter.test(device)) {
+                        continue;
+                    }
+                    attempted.add(device.getSerialNumber());
+                    attaching.submit(new Callable<IChimpDevice>() {
+                        public IChimpDevice call() throws Exception {
+                            try {
+                                IChimpDevice chimpDevice =
+                                        new AdbChimpDevice(device, deviceOptions, portAllocator);
+                                boolean inTime;
+                                synchronized (devices) {
+                                    inTime = !abandoned.get();
+                                    if (inTime) {
+                                        devices.add(chimpDevice);
+                                        connected.add(chimpDevice);
+                                    }
+                                }
+                                if (!inTime) {
+                                    // Too late; nobody is waiting for it any more.
+                                    chimpDevice.dispose();
+                                    return null;
+                                }
+                                if (onConnected != null) {
+                                    onConnected.accept(chimpDevice);
+                                }
+                                return chimpDevice;
+                            } finally {
+                                // Let the waiting thread collect the result right away.
+                                deviceTracker.wakeUp();
+                            }
+                        }
+                    });
+                    pending++;
+                }
+
+                Future<IChimpDevice> done;
+                while ((done = attaching.poll()) != null) {
+                    pending--;
+                    try {
+                        done.get();
+                    } catch (ExecutionException e) {
+                        LOG.log(Level.SEVERE, "Error connecting to device", e.getCause());
+                    }
+                }
+                if (connectedCount(connected) >= count) {
+                    break;
+                }
 
-            Thread.sleep(CONNECTION_ITERATION_TIMEOUT_MS);
-            timeoutMs -= CONNECTION_ITERATION_TIMEOUT_MS;
-        } while (timeoutMs > 0);
+                long remaining = timeoutNanos - (System.nanoTime() - start);
+                if (remaining <= 0) {
+                    break;
+                }
+                // Woken up when a device changes or an attach finishes.
+                deviceTracker.awaitChange(seenVersion, remaining);
+            }
+        } finally {
+            synchronized (devices) {
+                abandoned.set(true);
+            }
+            // Interrupts whatever is still coming up, which makes it clean up after itself.
+            attachers.shutdownNow();
+        }
+        synchronized (devices) {
+            return Lists.newArrayList(connected);
+        }
+    }
 
-        // Timeout.  Give up.
-        return null;
+    private int connectedCount(List<IChimpDevice> connected) {
+        synchronized (devices) {
+            return connected.size();
+        }
     }
 
     public void shutdown() throws IOException {
-        for (IChimpDevice device : devices) {
+        List<IChimpDevice> connected;
+        synchronized (devices) {
+            connected = Lists.newArrayList(devices);
+        }
+        for (IChimpDevice device : connected) {
             device.dispose();
         }
+        deviceTracker.stop();
         if (initAdb) {
             AndroidDebugBridge.terminate();
         }
@@ -23,29 +23,48 @@ import com.google.common.collect.Maps;
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.InstallException;
+import com.android.ddmlib.RawImage;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
 import com.android.annotations.Nullable;
 import de.clemensbartz.chattychimpchat.ChimpManager;
-import de.clemensbartz.chattychimpchat.adb.LinearInterpolator.Point;
+import de.clemensbartz.chattychimpchat.adb.image.ImageUtils;
+import de.clemensbartz.chattychimpchat.core.ChimpRect;
+import de.clemensbartz.chattychimpchat.core.Gesture;
+import de.clemensbartz.chattychimpchat.core.IAsyncChimpDevice;
 import de.clemensbartz.chattychimpchat.core.IChimpImage;
 import de.clemensbartz.chattychimpchat.core.IChimpDevice;
 import de.clemensbartz.chattychimpchat.core.IChimpView;
 import de.clemensbartz.chattychimpchat.core.IMultiSelector;
 import de.clemensbartz.chattychimpchat.core.ISelector;
+import de.clemensbartz.chattychimpchat.core.ISnapshotStream;
 import de.clemensbartz.chattychimpchat.core.PhysicalButton;
+import de.clemensbartz.chattychimpchat.core.ScreenRecording;
+import de.clemensbartz.chattychimpchat.core.StableScreen;
 import de.clemensbartz.chattychimpchat.core.TouchPressType;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -56,36 +75,207 @@ public class AdbChimpDevice implements IChimpDevice {
 
     private static final String[] ZERO_LENGTH_STRING_ARRAY = new String[0];
     private static final long MANAGER_CREATE_TIMEOUT_MS = 30 * 1000; // 30 seconds
-    private static final long MANAGER_CREATE_WAIT_TIME_MS = 1000; // wait 1 second
-
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Readiness probes start quickly and back off exponentially up to the maximum.
+    private static final long MANAGER_CREATE_INITIAL_WAIT_MS = 20;
+    private static final long MANAGER_CREATE_MAX_WAIT_MS = 500;
+    // The device port of the first monkey session; further sessions use the ports after it.
+    // The local ports they are forwarded to come from the port allocator.
+    private static final int MONKEY_PORT = 12345;
+    // Frames are captured as fast as the device allows while waiting for a stable screen.
+    private static final double STABLE_SCREEN_FPS = 60;
+
+    // Runs the monkey processes, one long-running shell command per session.
+    private final ExecutorService executor = Executors.newCachedThreadPool();
 
     private final IDevice device;
+    private final AdbDeviceOptions options;
+    private final MonkeyPortAllocator portAllocator;
+    // The local port each session is forwarded from, 0 if none is allocated.
+    private final int[] localPorts;
+    // The session input events go through.
     private ChimpManager manager;
+    // All sessions, the input session first.
+    private ChimpManager[] sessions;
+    private final AtomicInteger nextQuerySession = new AtomicInteger();
+    private long monkeyStartupTimeMs;
+    private final AdbAsyncChimpDevice asyncDevice = new AdbAsyncChimpDevice(this);
+    private final Screencap screencap;
+    private volatile boolean compressedSnapshots;
+    private final SnapshotStats rawSnapshotStats = new SnapshotStats();
+    private final SnapshotStats compressedSnapshotStats = new SnapshotStats();
+    // Snapshot streams that are still open, to close on dispose.
+    private volatile ScreenRecorder recorder;
+    private final Set<AdbSnapshotStream> snapshotStreams =
+            Collections.newSetFromMap(new ConcurrentHashMap<AdbSnapshotStream, Boolean>());
 
     public AdbChimpDevice(IDevice device) throws TimeoutException, IOException, AdbCommandRejectedException,
         InterruptedException
+    {
+        this(device, new AdbDeviceOptions());
+    }
+
+    public AdbChimpDevice(IDevice device, AdbDeviceOptions options) throws TimeoutException, IOException,
+        AdbCommandRejectedException, InterruptedException
+    {
+        this(device, options, MonkeyPortAllocator.getDefault());
+    }
+
+    AdbChimpDevice(IDevice device, AdbDeviceOptions options, MonkeyPortAllocator portAllocator)
+        throws TimeoutException, IOException, AdbCommandRejectedException, InterruptedException
     {
         this.device = device;
-        this.manager = createManager("127.0.0.1", 12345);
+        this.screencap = new Screencap(device);
+        this.options = new AdbDeviceOptions(options);
+        this.compressedSnapshots = options.isCompressedSnapshots();
+        this.portAllocator = portAllocator;
+        this.sessions = new ChimpManager[this.options.getMonkeySessions()];
+        this.localPorts = new int[sessions.length];
+        long start = System.nanoTime();
+        boolean connected = false;
+        try {
+            for (int i = 0; i < sessions.length; i++) {
+                localPorts[i] = portAllocator.allocate();
+                sessions[i] = createManager("127.0.0.1", localPorts[i], MONKEY_PORT + i);
+
+                Preconditions.checkNotNull(sessions[i]);
+            }
+            connected = true;
+        } finally {
+            if (!connected) {
+                for (ChimpManager session : sessions) {
+                    if (session != null) {
+                        try {
+                            session.close();
+                        } catch (IOException e) {
+                            LOG.log(Level.WARNING, "Error closing monkey session", e);
+                        }
+                    }
+                }
+                executor.shutdown();
+                releaseForwards();
+            }
+        }
+        this.monkeyStartupTimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        this.manager = sessions[0];
+    }
 
-        Preconditions.checkNotNull(this.manager);
+    /**
+     * @return how long it took from launching the monkey until all its sessions answered, in
+     *         milliseconds
+     */
+    public long getMonkeyStartupTimeMs() {
+        return monkeyStartupTimeMs;
     }
 
     public ChimpManager getManager() {
         return manager;
     }
 
+    /**
+     * Pick the session to send a read-only query through. With a single session that is the
+     * input session; otherwise it is an idle query session if there is one, or else the query
+     * session with the fewest outstanding responses. Queries never go through the input
+     * session then, so they cannot delay input events.
+     *
+     * @return the session for the next query
+     */
+    ChimpManager getQueryManager() {
+        ChimpManager[] sessions = this.sessions;
+        if (sessions.length == 1) {
+            return sessions[0];
+        }
+        int querySessions = sessions.length - 1;
+        // Start the search at a different session each time to spread the queries.
+        int first = (nextQuerySession.getAndIncrement() & Integer.MAX_VALUE) % querySessions;
+        ChimpManager best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < querySessions; i++) {
+            ChimpManager session = sessions[1 + (first + i) % querySessions];
+            int outstanding = session.getOutstandingResponses();
+            if (outstanding == 0) {
+                return session;
+            }
+            if (outstanding < bestOutstanding) {
+                best = session;
+                bestOutstanding = outstanding;
+            }
+        }
+        return best;
+    }
+
+    public IAsyncChimpDevice getAsyncDevice() {
+        return asyncDevice;
+    }
+
     public void dispose() throws IOException{
-        manager.quit();
-        manager.close();
-        executor.shutdown();
-        manager = null;
+        for (AdbSnapshotStream stream : snapshotStreams) {
+            stream.close();
+        }
+        if (recorder != null) {
+            try {
+                stopRecording();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error stopping the screen recording", e);
+            }
+        }
+        // Quit and close every session even if some fail; rethrow the first failure.
+        IOException failure = null;
+        try {
+            for (ChimpManager session : sessions) {
+                try {
+                    session.quit();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        LOG.log(Level.WARNING, "Error quitting monkey session", e);
+                    }
+                }
+                try {
+                    session.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        LOG.log(Level.WARNING, "Error closing monkey session", e);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+            manager = null;
+            releaseForwards();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Remove the forwards of all sessions and hand their local ports back.
+     */
+    private void releaseForwards() {
+        for (int i = 0; i < localPorts.length; i++) {
+            if (localPorts[i] == 0) {
+                continue;
+            }
+            try {
+                device.removeForward(localPorts[i], MONKEY_PORT + i);
+            } catch (TimeoutException e) {
+                LOG.log(Level.WARNING, "Error removing forward of port " + localPorts[i], e);
+            } catch (AdbCommandRejectedException e) {
+                LOG.log(Level.WARNING, "Error removing forward of port " + localPorts[i], e);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error removing forward of port " + localPorts[i], e);
+            }
+            portAllocator.release(localPorts[i]);
+            localPorts[i] = 0;
+        }
     }
 
-    private void executeAsyncCommand(final String command,
+    private Future<?> executeAsyncCommand(final String command,
             final LoggingOutputReceiver logger) {
-        executor.submit(new Runnable() {
+        return executor.submit(new Runnable() {
             public void run() {
                 try {
                     device.executeShellCommand(command, logger);
@@ -107,49 +297,308 @@ public class AdbChimpDevice implements IChimpDevice {
         });
     }
 
-    private ChimpManager createManager(String address, int port) throws TimeoutException,
-            AdbCommandRejectedException, IOException, UnknownHostException, InterruptedException {
-        device.createForward(port, port);
+    private ChimpManager createManager(String address, int localPort, int port)
+            throws TimeoutException, AdbCommandRejectedException, IOException, UnknownHostException,
+            InterruptedException {
+        device.createForward(localPort, port);
 
+        long start = System.nanoTime();
         String command = "monkey --port " + port;
-        executeAsyncCommand(command, new LoggingOutputReceiver(LOG, Level.FINE));
-
-        // Sleep for a second to give the command time to execute.
-        Thread.sleep(1000);
+        MonkeyOutputReceiver output = new MonkeyOutputReceiver();
+        Future<?> monkey = executeAsyncCommand(command, output);
 
         InetAddress addr = InetAddress.getByName(address);
 
-        // We have a tough problem to solve here.  "monkey" on the device gives us no indication
-        // when it has started up and is ready to serve traffic.  If you try too soon, commands
-        // will fail.  To remedy this, we will keep trying until a single command (in this case,
-        // wake) succeeds.
-        boolean success = false;
-        ChimpManager mm = null;
-        long start = System.currentTimeMillis();
-
-        while (!success) {
-            long now = System.currentTimeMillis();
-            long diff = now - start;
-            if (diff > MANAGER_CREATE_TIMEOUT_MS) {
+        // We have a tough problem to solve here.  "monkey" on the device gives us no reliable
+        // indication when it has started up and is ready to serve traffic.  If you try too
+        // soon, the forwarded connection is dropped and commands fail.  To remedy this, we
+        // keep trying until a single command (in this case, wake) succeeds, starting right
+        // away and backing off exponentially.  Anything the monkey prints, typically an error,
+        // triggers the next attempt early, and if it exits we stop trying.
+        long waitMs = MANAGER_CREATE_INITIAL_WAIT_MS;
+        int attempts = 0;
+        while (true) {
+            attempts++;
+            ChimpManager mm = tryConnect(addr, localPort);
+            if (mm != null) {
+                long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                LOG.info("Monkey on port " + port + " ready after " + elapsedMs + " ms, "
+                        + attempts + " attempts");
+                return mm;
+            }
+
+            if (hasExited(monkey)) {
+                LOG.severe("Monkey exited before accepting connections: "
+                        + output.getLastLine());
+                return null;
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (elapsedMs > MANAGER_CREATE_TIMEOUT_MS) {
                 LOG.severe("Timeout while trying to create chimp mananger");
                 return null;
             }
 
-            Thread.sleep(MANAGER_CREATE_WAIT_TIME_MS);
+            output.awaitOutput(Math.min(waitMs, MANAGER_CREATE_TIMEOUT_MS - elapsedMs));
+            waitMs = Math.min(waitMs * 2, MANAGER_CREATE_MAX_WAIT_MS);
+        }
+    }
 
-            Socket monkeySocket = new Socket(addr, port);
+    /**
+     * Connect to the monkey and check that it answers.
+     *
+     * @return the connected manager, or null if the monkey is not ready yet
+     */
+    private ChimpManager tryConnect(InetAddress addr, int port) {
+        ChimpManager mm;
+        try {
+            if (options.isChannelTransport()) {
+                mm = new ChimpManager(SocketChannel.open(new InetSocketAddress(addr, port)));
+            } else {
+                Socket monkeySocket = new Socket(addr, port);
 
-            mm = new ChimpManager(monkeySocket);
+                mm = new ChimpManager(monkeySocket);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            if (mm.batch().wake().execute()[0]) {
+                return mm;
+            }
+        } catch (IOException e) {
+            // Not listening yet; adb dropped the forwarded connection.
+        }
+        try {
+            mm.close();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Error closing probe connection", e);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the monkey command has completed normally, which means the monkey is gone.
+     *         If the shell command failed, the monkey may well still be running on the device.
+     */
+    private static boolean hasExited(Future<?> monkey) throws InterruptedException {
+        if (!monkey.isDone()) {
+            return false;
+        }
+        try {
+            monkey.get();
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
 
-            mm.wake();
-            success = true;
+    /**
+     * Logs the output of the monkey and lets the readiness check wait for it.
+     */
+    private static final class MonkeyOutputReceiver extends LoggingOutputReceiver {
+        private int lines = 0;
+        private String lastLine = null;
+
+        MonkeyOutputReceiver() {
+            super(LOG, Level.FINE);
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            super.addOutput(data, offset, length);
+            String[] newLines = new String(data, offset, length).trim().split("\n");
+            synchronized (this) {
+                lines += newLines.length;
+                lastLine = newLines[newLines.length - 1];
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wait until the monkey prints something or the time is up.
+         *
+         * @param timeoutMs the longest time to wait, in milliseconds
+         */
+        synchronized void awaitOutput(long timeoutMs) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            int seen = lines;
+            long remaining;
+            while (lines == seen
+                    && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
         }
 
-        return mm;
+        synchronized String getLastLine() {
+            return lastLine;
+        }
     }
 
     public IChimpImage takeSnapshot() throws TimeoutException, AdbCommandRejectedException, IOException{
-        return new AdbChimpImage(device.getScreenshot());
+        if (compressedSnapshots) {
+            try {
+                return takeCompressedSnapshot();
+            } catch (ShellCommandUnresponsiveException e) {
+                throw new IOException("screencap did not respond", e);
+            }
+        }
+        return takeRawSnapshot();
+    }
+
+    /**
+     * Take a snapshot by transferring the raw frame buffer.
+     *
+     * @return the snapshot
+     */
+    public IChimpImage takeRawSnapshot()
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        long start = System.nanoTime();
+        RawImage image = device.getScreenshot();
+        rawSnapshotStats.record(image.size, System.nanoTime() - start);
+        return new AdbChimpImage(image);
+    }
+
+    /**
+     * Take a snapshot compressed as PNG on the device. The PNG is only decoded when the pixels
+     * of the snapshot are first needed.
+     *
+     * @return the snapshot
+     */
+    public IChimpImage takeCompressedSnapshot() throws TimeoutException,
+            AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        long start = System.nanoTime();
+        PngChimpImage image = screencap.capturePng();
+        compressedSnapshotStats.record(image.getLength(), System.nanoTime() - start);
+        return image;
+    }
+
+    /**
+     * @return true if {@link #takeSnapshot()} takes compressed snapshots
+     */
+    public boolean isCompressedSnapshots() {
+        return compressedSnapshots;
+    }
+
+    /**
+     * Choose how {@link #takeSnapshot()} takes snapshots, for example after comparing their
+     * statistics on this device.
+     *
+     * @param compressedSnapshots true to take snapshots as PNGs compressed on the device
+     */
+    public void setCompressedSnapshots(boolean compressedSnapshots) {
+        this.compressedSnapshots = compressedSnapshots;
+    }
+
+    /**
+     * @return the bytes and time taken by raw snapshots
+     */
+    public SnapshotStats getRawSnapshotStats() {
+        return rawSnapshotStats;
+    }
+
+    /**
+     * @return the bytes and time taken by compressed snapshots
+     */
+    public SnapshotStats getCompressedSnapshotStats() {
+        return compressedSnapshotStats;
+    }
+
+    public IChimpImage takeSnapshot(ChimpRect region)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        RawImage image = screencap.captureRegion(region);
+        if (image != null) {
+            return new AdbChimpImage(image);
+        }
+        // The device cannot cut out the region, so cut it out of a full snapshot.
+        RawImage screen = device.getScreenshot();
+        ChimpRect clipped = Screencap.clip(region, screen.width, screen.height);
+        return new AdbChimpImage(screen).getSubImage(clipped.left, clipped.top,
+                clipped.getWidth(), clipped.getHeight());
+    }
+
+    public ISnapshotStream openSnapshotStream(double fps) {
+        AdbSnapshotStream stream = new AdbSnapshotStream(device, fps, snapshotStreams);
+        snapshotStreams.add(stream);
+        stream.start(executor);
+        return stream;
+    }
+
+    public StableScreen waitForStableScreen(long timeoutMs, long quietPeriodMs, double tolerance)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        long quietPeriod = TimeUnit.MILLISECONDS.toNanos(quietPeriodMs);
+        long[] hashes = null;
+        long[] previous = null;
+        long lastChange = 0;
+        int frames = 0;
+        ISnapshotStream stream = openSnapshotStream(STABLE_SCREEN_FPS);
+        try {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                AdbChimpImage frame = (AdbChimpImage) stream.poll(remaining, TimeUnit.NANOSECONDS);
+                if (frame == null) {
+                    break;
+                }
+                long now = System.nanoTime();
+                frames++;
+                hashes = ImageUtils.hashRows(frame.getRawImage(), hashes);
+                if (previous == null || previous.length != hashes.length) {
+                    lastChange = now;
+                } else {
+                    int changed = 0;
+                    for (int i = 0; i < hashes.length; i++) {
+                        if (hashes[i] != previous[i]) {
+                            changed++;
+                        }
+                    }
+                    if (changed > tolerance * hashes.length) {
+                        lastChange = now;
+                    } else if (now - lastChange >= quietPeriod) {
+                        return new StableScreen(true,
+                                TimeUnit.NANOSECONDS.toMillis(now - start), frames);
+                    }
+                }
+                // Swap the arrays rather than allocate new hashes for every frame.
+                long[] swap = previous;
+                previous = hashes;
+                hashes = swap;
+            }
+        } finally {
+            stream.close();
+        }
+        return new StableScreen(false, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                frames);
+    }
+
+    public synchronized void startRecording(OutputStream out) throws IOException {
+        if (recorder != null) {
+            throw new IllegalStateException("The screen is already being recorded");
+        }
+        ScreenRecorder started = new ScreenRecorder(device, out);
+        started.start(executor);
+        recorder = started;
+    }
+
+    public synchronized ScreenRecording stopRecording() throws IOException {
+        ScreenRecorder stopped = recorder;
+        if (stopped == null) {
+            throw new IllegalStateException("The screen is not being recorded");
+        }
+        recorder = null;
+        return stopped.stop();
+    }
+
+    /**
+     * Log an input event for the screen recording, if there is one.
+     *
+     * @param description what the event was
+     */
+    void logInput(String description) {
+        ScreenRecorder current = recorder;
+        if (current != null) {
+            current.logInput(description);
+        }
     }
 
     public String getSystemProperty(String key) {
@@ -157,11 +606,11 @@ public class AdbChimpDevice implements IChimpDevice {
     }
 
     public String getProperty(String key) throws IOException {
-        return manager.getVariable(key);
+        return getQueryManager().getVariable(key);
     }
 
     public Collection<String> getPropertyList() throws IOException {
-        return manager.listVariable();
+        return getQueryManager().listVariable();
     }
 
     public void wake() throws IOException {
@@ -214,6 +663,7 @@ public class AdbChimpDevice implements IChimpDevice {
     }
 
     public void press(String keyName, TouchPressType type) throws IOException {
+        logInput("press " + keyName + " " + type);
         switch (type) {
             case DOWN_AND_UP:
                 manager.press(keyName);
@@ -232,10 +682,12 @@ public class AdbChimpDevice implements IChimpDevice {
     }
 
     public void type(String string) throws IOException {
+        logInput("type " + string);
         manager.type(string);
     }
 
     public void touch(int x, int y, TouchPressType type) throws IOException {
+        logInput("touch " + x + "," + y + " " + type);
         switch (type) {
             case DOWN:
                 manager.touchDown(x, y);
@@ -418,66 +870,84 @@ public class AdbChimpDevice implements IChimpDevice {
     }
 
     public void drag(int startx, int starty, int endx, int endy, int steps, long ms) {
-        final long iterationTime = ms / steps;
+        try {
+            perform(Gesture.line(startx, starty, endx, endy, steps, ms));
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Error sending drag events", e);
+        }
+    }
 
-        LinearInterpolator lerp = new LinearInterpolator(steps);
-        LinearInterpolator.Point start = new LinearInterpolator.Point(startx, starty);
-        LinearInterpolator.Point end = new LinearInterpolator.Point(endx, endy);
-        lerp.interpolate(start, end, new LinearInterpolator.Callback() {
-            public void step(Point point) {
-                try {
-                    manager.touchMove(point.getX(), point.getY());
-                } catch (IOException e) {
-                    LOG.log(Level.SEVERE, "Error sending drag start event", e);
+    public void perform(Gesture gesture) throws IOException {
+        logInput("gesture " + gesture);
+        // Sent without waiting for the responses, so each point leaves when it is due rather
+        // than a round trip after the one before.
+        List<CompletableFuture<Boolean>> sent =
+                Lists.newArrayListWithCapacity(gesture.size() + 1);
+        int last = gesture.size() - 1;
+        int x = gesture.getX(0);
+        int y = gesture.getY(0);
+        long start = System.nanoTime();
+        sent.add(manager.touchDownAsync(x, y));
+        try {
+            for (int i = 1; i <= last; i++) {
+                if (i < last && System.nanoTime() - start >= gesture.getTimeNanos(i + 1)) {
+                    // Behind schedule; the next point is due already. The last point is
+                    // always sent, so the view sees the finger move.
+                    continue;
                 }
-
-                try {
-                    Thread.sleep(iterationTime);
-                } catch (InterruptedException e) {
-                    LOG.log(Level.SEVERE, "Error sleeping", e);
+                long remaining;
+                while ((remaining = start + gesture.getTimeNanos(i) - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
                 }
+                x = gesture.getX(i);
+                y = gesture.getY(i);
+                sent.add(manager.touchMoveAsync(x, y));
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while performing a gesture");
+        } finally {
+            // Never leave the finger down.
+            sent.add(manager.touchUpAsync(x, y));
+        }
+        awaitSent(sent);
+    }
 
-            public void start(Point point) {
-                try {
-                    manager.touchDown(point.getX(), point.getY());
-                    manager.touchMove(point.getX(), point.getY());
-                } catch (IOException e) {
-                    LOG.log(Level.SEVERE, "Error sending drag start event", e);
-                }
-
-                try {
-                    Thread.sleep(iterationTime);
-                } catch (InterruptedException e) {
-                    LOG.log(Level.SEVERE, "Error sleeping", e);
-                }
+    /**
+     * Wait for the responses to input events that were sent without waiting.
+     *
+     * @param sent the responses
+     * @throws IOException if sending any of the events failed
+     */
+    private static void awaitSent(List<CompletableFuture<Boolean>> sent) throws IOException {
+        try {
+            for (CompletableFuture<Boolean> response : sent) {
+                response.get();
             }
-
-            public void end(Point point) {
-                try {
-                    manager.touchMove(point.getX(), point.getY());
-                    manager.touchUp(point.getX(), point.getY());
-                } catch (IOException e) {
-                    LOG.log(Level.SEVERE, "Error sending drag end event", e);
-                }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while performing a gesture");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
-        });
+            throw new IOException("Error sending gesture events", e.getCause());
+        }
     }
 
-
     public Collection<String> getViewIdList() throws IOException {
-        return manager.listViewIds();
+        return getQueryManager().listViewIds();
     }
 
     public IChimpView getView(ISelector selector) {
-        return selector.getView(manager);
+        return selector.getView(getQueryManager());
     }
 
     public Collection<IChimpView> getViews(IMultiSelector selector) throws IOException {
-        return selector.getViews(manager);
+        return selector.getViews(getQueryManager());
     }
 
     public IChimpView getRootView() throws IOException {
-        return manager.getRootView();
+        return getQueryManager().getRootView();
     }
 }
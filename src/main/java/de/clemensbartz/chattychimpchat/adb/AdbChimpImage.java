@@ -18,11 +18,15 @@ package de.clemensbartz.chattychimpchat.adb;
 import com.android.ddmlib.RawImage;
 import de.clemensbartz.chattychimpchat.adb.image.ImageUtils;
 import de.clemensbartz.chattychimpchat.core.ChimpImageBase;
+import de.clemensbartz.chattychimpchat.core.IChimpImage;
 
 import java.awt.image.BufferedImage;
 
 /**
  * ADB implementation of the ChimpImage class.
+ *
+ * Single pixels, rows and regions are read straight from the raw frame buffer; the whole image
+ * is only decoded when a BufferedImage is asked for.
  */
 public class AdbChimpImage extends ChimpImageBase {
     private final RawImage image;
@@ -32,7 +36,7 @@ public class AdbChimpImage extends ChimpImageBase {
      *
      * @param image the image from adb.
      */
-    AdbChimpImage(RawImage image) {
+    public AdbChimpImage(RawImage image) {
         this.image = image;
     }
 
@@ -41,6 +45,34 @@ public class AdbChimpImage extends ChimpImageBase {
         return ImageUtils.convertImage(image);
     }
 
+    @Override
+    public int getPixel(int x, int y) {
+        if (!isDecodable()) {
+            return super.getPixel(x, y);
+        }
+        return ImageUtils.getPixel(image, x, y);
+    }
+
+    @Override
+    public int[] getPixels(int x, int y, int w, int h) {
+        if (!isDecodable()) {
+            return super.getPixels(x, y, w, h);
+        }
+        return ImageUtils.convertToArgb(image, x, y, w, h, null, 0, w);
+    }
+
+    @Override
+    public IChimpImage getSubImage(int x, int y, int w, int h) {
+        if (!isDecodable()) {
+            return super.getSubImage(x, y, w, h);
+        }
+        return new AdbChimpImage(ImageUtils.crop(image, x, y, w, h));
+    }
+
+    private boolean isDecodable() {
+        return image.bpp == 16 || image.bpp == 32;
+    }
+
     public RawImage getRawImage() {
         return image;
     }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb;
+
+/**
+ * Settings for how an AdbChimpDevice talks to the monkey on its device.
+ */
+public class AdbDeviceOptions {
+    private boolean channelTransport = false;
+    private int monkeySessions = 1;
+    private boolean compressedSnapshots = false;
+
+    /**
+     * Creates AdbDeviceOptions with default settings.
+     */
+    public AdbDeviceOptions() { }
+
+    /**
+     * Creates a copy of the given options.
+     *
+     * @param other the options to copy
+     */
+    public AdbDeviceOptions(AdbDeviceOptions other) {
+        this.channelTransport = other.channelTransport;
+        this.monkeySessions = other.monkeySessions;
+        this.compressedSnapshots = other.compressedSnapshots;
+    }
+
+    /**
+     * @return true if the monkey is talked to over a SocketChannel with reusable buffers
+     *         instead of socket streams
+     */
+    public boolean isChannelTransport() {
+        return channelTransport;
+    }
+
+    /**
+     * Choose between the SocketChannel and the socket stream transport to the monkey.
+     *
+     * @param channelTransport true to use a SocketChannel with reusable buffers
+     */
+    public void setChannelTransport(boolean channelTransport) {
+        this.channelTransport = channelTransport;
+    }
+
+    /**
+     * @return the number of monkey connections opened per device
+     */
+    public int getMonkeySessions() {
+        return monkeySessions;
+    }
+
+    /**
+     * Set the number of monkey connections opened per device. Each one is served by its own
+     * monkey process on the device. Input events always go through the first session, while
+     * queries are spread over the others, so that walking the view hierarchy does not hold up
+     * input.
+     *
+     * @param monkeySessions the number of sessions, at least 1
+     */
+    public void setMonkeySessions(int monkeySessions) {
+        if (monkeySessions < 1) {
+            throw new IllegalArgumentException("At least one monkey session is needed: "
+                    + monkeySessions);
+        }
+        this.monkeySessions = monkeySessions;
+    }
+
+    /**
+     * @return true if snapshots are taken as PNGs compressed on the device
+     */
+    public boolean isCompressedSnapshots() {
+        return compressedSnapshots;
+    }
+
+    /**
+     * Choose between raw frame buffers and PNGs compressed on the device for snapshots. PNGs
+     * take a fraction of the bytes, which helps on slow or shared USB connections, but take
+     * longer to produce on the device.
+     *
+     * @param compressedSnapshots true to take snapshots as PNGs
+     */
+    public void setCompressedSnapshots(boolean compressedSnapshots) {
+        this.compressedSnapshots = compressedSnapshots;
+    }
+}
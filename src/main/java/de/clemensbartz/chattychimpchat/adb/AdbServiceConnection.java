@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb;
+
+import com.android.ddmlib.AndroidDebugBridge;
+import com.android.ddmlib.IDevice;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A raw connection to a service of a device through the adb server, such as "framebuffer:" or
+ * "exec:screencap". ddmlib only hands out the decoded results of these services; reading them
+ * directly lets callers reuse their buffers and stream the output as it arrives.
+ */
+final class AdbServiceConnection implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+
+    private AdbServiceConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * Connect to a service of a device.
+     *
+     * @param device the device
+     * @param service the service, for example "framebuffer:"
+     * @param timeoutMs how long to wait for the connection and for each read, in milliseconds
+     * @return the connection, positioned at the output of the service
+     * @throws IOException if the connection fails or adb rejects the request
+     */
+    static AdbServiceConnection open(IDevice device, String service, int timeoutMs)
+            throws IOException {
+        InetSocketAddress address = AndroidDebugBridge.getSocketAddress();
+        if (address == null) {
+            throw new IOException("adb has not been initialized");
+        }
+        Socket socket = new Socket();
+        boolean opened = false;
+        try {
+            socket.connect(address, timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            socket.setTcpNoDelay(true);
+            AdbServiceConnection connection = new AdbServiceConnection(socket);
+            connection.request("host:transport:" + device.getSerialNumber());
+            connection.request(service);
+            opened = true;
+            return connection;
+        } finally {
+            if (!opened) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Send a request in the adb wire format and check that it was accepted.
+     */
+    private void request(String request) throws IOException {
+        byte[] payload = request.getBytes(StandardCharsets.UTF_8);
+        out.write(String.format("%04X", payload.length).getBytes(StandardCharsets.US_ASCII));
+        out.write(payload);
+        out.flush();
+
+        byte[] status = new byte[4];
+        in.readFully(status);
+        if (status[0] == 'O' && status[1] == 'K' && status[2] == 'A' && status[3] == 'Y') {
+            return;
+        }
+        String message = new String(status, StandardCharsets.US_ASCII);
+        if (message.equals("FAIL")) {
+            byte[] length = new byte[4];
+            in.readFully(length);
+            byte[] reason = new byte[Integer.parseInt(
+                    new String(length, StandardCharsets.US_ASCII), 16)];
+            in.readFully(reason);
+            message = new String(reason, StandardCharsets.UTF_8);
+        }
+        throw new IOException("adb rejected " + request + ": " + message);
+    }
+
+    /**
+     * @return the output of the service
+     */
+    DataInputStream getInputStream() {
+        return in;
+    }
+
+    /**
+     * @return the input of the service
+     */
+    OutputStream getOutputStream() {
+        return out;
+    }
+
+    /**
+     * Change how long each read may wait, for services that stay quiet for a while.
+     *
+     * @param timeoutMs the timeout in milliseconds, or 0 to wait indefinitely
+     */
+    void setReadTimeout(int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
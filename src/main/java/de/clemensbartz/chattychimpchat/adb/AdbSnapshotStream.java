@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb;
+
+import com.android.ddmlib.DdmPreferences;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.RawImage;
+import de.clemensbartz.chattychimpchat.adb.image.ImageUtils;
+import de.clemensbartz.chattychimpchat.core.IChimpImage;
+import de.clemensbartz.chattychimpchat.core.ISnapshotStream;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Captures the frame buffer of a device continuously into a ring of reused frames.
+ *
+ * Frames are published and the stream is closed under the lock of the stream, so no frame
+ * follows the end of the stream, and closing waits for the capture loop to finish.
+ */
+final class AdbSnapshotStream implements ISnapshotStream {
+    private static final Logger LOG = Logger.getLogger(AdbSnapshotStream.class.getName());
+
+    // One frame held by the consumer, one being captured and one waiting in between.
+    private static final int FRAME_BUFFERS = 3;
+    // Marks the end of the stream in the queue of ready frames.
+    private static final Frame END = new Frame();
+
+    private final IDevice device;
+    private final long periodNanos;
+    private final Set<AdbSnapshotStream> openStreams;
+    private final BlockingQueue<Frame> free = new LinkedBlockingQueue<Frame>();
+    private final BlockingQueue<Frame> ready = new LinkedBlockingQueue<Frame>();
+    private final AtomicLong capturedFrames = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private volatile boolean closed = false;
+    private volatile Exception failure = null;
+    // The thread running the capture loop while it runs, guarded by this.
+    private Thread captureThread = null;
+    // Counted down when the capture loop has finished, or null until started.
+    private CountDownLatch captureFinished = null;
+    // The frame the consumer holds, returned to the ring on the next take.
+    private Frame current = null;
+
+    /**
+     * A reusable frame: the raw frame buffer and the image it was last decoded into.
+     */
+    private static final class Frame {
+        final RawImage raw = new RawImage();
+        BufferedImage decoded;
+    }
+
+    /**
+     * The image of a frame, decoding into the buffer of the frame. It is kept out of the shared
+     * cache of decoded images, since the buffer is reused for later frames.
+     */
+    private static final class FrameImage extends AdbChimpImage {
+        private final Frame frame;
+        private BufferedImage decoded;
+
+        FrameImage(Frame frame) {
+            super(frame.raw);
+            this.frame = frame;
+        }
+
+        @Override
+        public BufferedImage createBufferedImage() {
+            frame.decoded = ImageUtils.convertImage(frame.raw, frame.decoded);
+            return frame.decoded;
+        }
+
+        @Override
+        public synchronized BufferedImage getBufferedImage() {
+            if (decoded == null) {
+                decoded = createBufferedImage();
+            }
+            return decoded;
+        }
+
+        @Override
+        public IChimpImage getSubImage(int x, int y, int w, int h) {
+            // The buffers of the frame are captured into again; copy rather than share them.
+            return new AdbChimpImage(ImageUtils.crop(frame.raw, x, y, w, h));
+        }
+    }
+
+    /**
+     * @param device the device to capture
+     * @param fps how many frames to capture per second at most
+     * @param openStreams the open streams of the device, which the stream leaves when closed
+     */
+    AdbSnapshotStream(IDevice device, double fps, Set<AdbSnapshotStream> openStreams) {
+        if (!(fps > 0)) {
+            throw new IllegalArgumentException("fps must be positive: " + fps);
+        }
+        this.device = device;
+        this.periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+        this.openStreams = openStreams;
+        for (int i = 0; i < FRAME_BUFFERS; i++) {
+            free.add(new Frame());
+        }
+    }
+
+    /**
+     * Start capturing.
+     *
+     * @param executor the executor to run the capture loop on
+     */
+    void start(ExecutorService executor) {
+        final CountDownLatch finished = new CountDownLatch(1);
+        synchronized (this) {
+            captureFinished = finished;
+        }
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (AdbSnapshotStream.this) {
+                        captureThread = Thread.currentThread();
+                    }
+                    captureFrames();
+                } catch (InterruptedException e) {
+                    // Closed while waiting.
+                } catch (IOException | RuntimeException e) {
+                    if (!closed) {
+                        LOG.log(Level.WARNING, "Error capturing the screen", e);
+                        failure = e;
+                    }
+                } finally {
+                    synchronized (AdbSnapshotStream.this) {
+                        captureThread = null;
+                        // The pool thread must not keep an interrupt meant for this loop.
+                        Thread.interrupted();
+                    }
+                    publish(END);
+                    finished.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Hand a frame to the consumer unless the stream has been closed, which already queued
+     * the end.
+     *
+     * @return false if the stream has been closed
+     */
+    private synchronized boolean publish(Frame frame) {
+        if (closed) {
+            return false;
+        }
+        ready.add(frame);
+        return true;
+    }
+
+    private void captureFrames() throws IOException, InterruptedException {
+        int timeoutMs = DdmPreferences.getTimeOut();
+        long next = System.nanoTime();
+        while (!closed) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            Frame frame = free.poll();
+            if (frame == null) {
+                stalls.incrementAndGet();
+                frame = free.take();
+            }
+            readFrameBuffer(device, frame.raw, timeoutMs);
+            if (!publish(frame)) {
+                return;
+            }
+            capturedFrames.incrementAndGet();
+            // Keep to the frame rate, but do not catch up in a burst after falling behind.
+            next = Math.max(next + periodNanos, System.nanoTime());
+        }
+    }
+
+    /**
+     * Read the current frame buffer of a device, reusing the pixel buffer of the image when it
+     * has the right size.
+     *
+     * @param device the device
+     * @param image the image to read into
+     * @param timeoutMs how long to wait for each read, in milliseconds
+     */
+    static void readFrameBuffer(IDevice device, RawImage image, int timeoutMs)
+            throws IOException {
+        AdbServiceConnection connection =
+                AdbServiceConnection.open(device, "framebuffer:", timeoutMs);
+        try {
+            DataInputStream in = connection.getInputStream();
+            int version = Integer.reverseBytes(in.readInt());
+            int headerSize = RawImage.getHeaderSize(version);
+            if (headerSize <= 0) {
+                throw new IOException("Unsupported frame buffer version " + version);
+            }
+            byte[] header = new byte[headerSize * 4];
+            in.readFully(header);
+            if (!image.readHeader(version,
+                    ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN))) {
+                throw new IOException("Unsupported frame buffer version " + version);
+            }
+            // Ask for the pixels.
+            connection.getOutputStream().write(0);
+            connection.getOutputStream().flush();
+            if (image.data == null || image.data.length != image.size) {
+                image.data = new byte[image.size];
+            }
+            in.readFully(image.data);
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    public IChimpImage take() throws IOException, InterruptedException {
+        releaseCurrent();
+        return deliver(ready.take());
+    }
+
+    @Override
+    public IChimpImage poll(long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        releaseCurrent();
+        return deliver(ready.poll(timeout, unit));
+    }
+
+    private synchronized void releaseCurrent() {
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+    }
+
+    private synchronized IChimpImage deliver(Frame frame) throws IOException {
+        if (frame == END) {
+            // Leave the end in place for later calls.
+            ready.add(END);
+            if (failure != null) {
+                throw new IOException("Screen capture failed", failure);
+            }
+            return null;
+        }
+        if (frame == null) {
+            return null;
+        }
+        current = frame;
+        return new FrameImage(frame);
+    }
+
+    @Override
+    public long getCapturedFrames() {
+        return capturedFrames.get();
+    }
+
+    @Override
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    @Override
+    public void close() {
+        CountDownLatch finished;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ready.clear();
+            ready.add(END);
+            if (captureThread != null) {
+                captureThread.interrupt();
+            }
+            finished = captureFinished;
+        }
+        openStreams.remove(this);
+        if (finished == null) {
+            return;
+        }
+        // A frame buffer read in progress cannot be interrupted but ends within its timeout.
+        try {
+            if (!finished.await(DdmPreferences.getTimeOut(), TimeUnit.MILLISECONDS)) {
+                LOG.warning("Screen capture did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
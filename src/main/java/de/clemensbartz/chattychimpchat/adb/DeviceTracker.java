@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.android.ddmlib.AndroidDebugBridge;
+import com.android.ddmlib.IDevice;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps track of the online devices of a bridge as ddmlib reports them, so that waiting for a
+ * device does not need to poll. Waiters are woken up as soon as a device changes.
+ *
+ * This class is thread-safe.
+ */
+final class DeviceTracker implements AndroidDebugBridge.IDeviceChangeListener {
+    private final AndroidDebugBridge bridge;
+    // The online devices by serial number, in the order they came online.
+    private final Map<String, IDevice> onlineDevices = Maps.newLinkedHashMap();
+    // Incremented on every change, so that waiters can tell whether they missed one.
+    private long version = 0;
+
+    /**
+     * Creates a DeviceTracker.
+     *
+     * @param bridge the bridge whose devices to track
+     */
+    DeviceTracker(AndroidDebugBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    /**
+     * Start listening for device changes.
+     */
+    void start() {
+        AndroidDebugBridge.addDeviceChangeListener(this);
+        // Devices that were known before we started listening do not get reported again.
+        for (IDevice device : bridge.getDevices()) {
+            update(device);
+        }
+    }
+
+    /**
+     * Stop listening for device changes.
+     */
+    void stop() {
+        AndroidDebugBridge.removeDeviceChangeListener(this);
+    }
+
+    @Override
+    public void deviceConnected(IDevice device) {
+        update(device);
+    }
+
+    @Override
+    public void deviceDisconnected(IDevice device) {
+        synchronized (this) {
+            onlineDevices.remove(device.getSerialNumber());
+            changed();
+        }
+    }
+
+    @Override
+    public void deviceChanged(IDevice device, int changeMask) {
+        update(device);
+    }
+
+    private synchronized void update(IDevice device) {
+        if (device.getState() == IDevice.DeviceState.ONLINE) {
+            onlineDevices.put(device.getSerialNumber(), device);
+        } else {
+            onlineDevices.remove(device.getSerialNumber());
+        }
+        changed();
+    }
+
+    private void changed() {
+        version++;
+        notifyAll();
+    }
+
+    /**
+     * Wake up everybody waiting in {@link #awaitChange(long, long)}, for reasons other than a
+     * device change.
+     */
+    synchronized void wakeUp() {
+        changed();
+    }
+
+    /**
+     * @return a number that changes whenever a device changes or {@link #wakeUp()} is called
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the devices that are online right now, in the order they came online
+     */
+    synchronized List<IDevice> getOnlineDevices() {
+        return Lists.newArrayList(onlineDevices.values());
+    }
+
+    /**
+     * Wait until something changed since the given version.
+     *
+     * @param seenVersion the version the caller last looked at
+     * @param timeoutNanos the longest time to wait, in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void awaitChange(long seenVersion, long timeoutNanos)
+            throws InterruptedException {
+        // Compared against the elapsed time, as a deadline overflows for long timeouts.
+        long start = System.nanoTime();
+        long remaining;
+        while (version == seenVersion
+                && (remaining = timeoutNanos - (System.nanoTime() - start)) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    /**
+     * Wait for an online device whose serial number is the given id or matches it as a regular
+     * expression.
+     *
+     * @param deviceId the serial number
+     * @param pattern the serial number compiled as a regular expression
+     * @param timeoutMs how long (in ms) to wait
+     * @return the device, or null on timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized IDevice awaitDevice(String deviceId, Pattern pattern, long timeoutMs)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            IDevice device = onlineDevices.get(deviceId);
+            if (device != null) {
+                return device;
+            }
+            for (IDevice candidate : onlineDevices.values()) {
+                if (pattern.matcher(candidate.getSerialNumber()).matches()) {
+                    return candidate;
+                }
+            }
+            long remaining = timeoutNanos - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+}
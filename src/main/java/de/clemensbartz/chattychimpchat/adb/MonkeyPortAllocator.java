@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.BitSet;
+
+/**
+ * Hands out the local ports that monkey connections are forwarded to, so that several devices
+ * can be connected at the same time without their forwards colliding.
+ *
+ * This class is thread-safe.
+ */
+final class MonkeyPortAllocator {
+    private static final int FIRST_PORT = 12345;
+    private static final int PORT_COUNT = 1000;
+
+    // Shared by devices that are created without a backend.
+    private static final MonkeyPortAllocator DEFAULT = new MonkeyPortAllocator();
+
+    private final int firstPort;
+    private final int portCount;
+    private final BitSet allocated;
+    // Where to start looking for the next port, so that released ports are not reused at once.
+    private int next = 0;
+
+    /**
+     * Creates a MonkeyPortAllocator for the default port range.
+     */
+    MonkeyPortAllocator() {
+        this(FIRST_PORT, PORT_COUNT);
+    }
+
+    /**
+     * Creates a MonkeyPortAllocator.
+     *
+     * @param firstPort the first port to hand out
+     * @param portCount the number of ports to hand out
+     */
+    MonkeyPortAllocator(int firstPort, int portCount) {
+        this.firstPort = firstPort;
+        this.portCount = portCount;
+        this.allocated = new BitSet(portCount);
+    }
+
+    /**
+     * @return the allocator shared by devices that are created without a backend
+     */
+    static MonkeyPortAllocator getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Reserve a local port that is neither handed out already nor in use by anything else on
+     * this host, for example a forward set up by another process.
+     *
+     * @return the port
+     * @throws java.io.IOException if all ports in the range are taken
+     */
+    synchronized int allocate() throws IOException {
+        for (int i = 0; i < portCount; i++) {
+            int index = (next + i) % portCount;
+            if (allocated.get(index) || !isFree(firstPort + index)) {
+                continue;
+            }
+            allocated.set(index);
+            next = (index + 1) % portCount;
+            return firstPort + index;
+        }
+        throw new IOException("No free local port between " + firstPort + " and "
+                + (firstPort + portCount - 1));
+    }
+
+    /**
+     * Return a port so that it can be handed out again.
+     *
+     * @param port a port returned by {@link #allocate()}
+     */
+    synchronized void release(int port) {
+        allocated.clear(port - firstPort);
+    }
+
+    private static boolean isFree(int port) {
+        ServerSocket socket = null;
+        try {
+            socket = new ServerSocket(port, 1, InetAddress.getByName("127.0.0.1"));
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Nothing we can do.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb;
+
+import de.clemensbartz.chattychimpchat.core.ChimpImageBase;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A snapshot as a PNG, as taken by screencap -p. It is only decoded when its pixels are first
+ * needed, and saved as PNG without being decoded at all.
+ */
+class PngChimpImage extends ChimpImageBase {
+    private final byte[] png;
+    private final int length;
+
+    /**
+     * @param png the buffer holding the PNG
+     * @param length the length of the PNG in the buffer
+     */
+    PngChimpImage(byte[] png, int length) {
+        this.png = png;
+        this.length = length;
+    }
+
+    /**
+     * @return the length of the PNG in bytes
+     */
+    int getLength() {
+        return length;
+    }
+
+    @Override
+    public BufferedImage createBufferedImage() {
+        BufferedImage decoded;
+        try {
+            decoded = ImageIO.read(new ByteArrayInputStream(png, 0, length));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot decode snapshot", e);
+        }
+        if (decoded == null) {
+            throw new IllegalStateException("Cannot decode snapshot");
+        }
+        if (decoded.getType() == BufferedImage.TYPE_INT_ARGB) {
+            return decoded;
+        }
+        // Convert once, so that comparisons can work on the ARGB pixels directly.
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        decoded.getRGB(0, 0, width, height,
+                ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, width);
+        return image;
+    }
+
+    @Override
+    public void writeToChannel(WritableByteChannel channel, String format) throws IOException {
+        if (!"png".equalsIgnoreCase(format)) {
+            super.writeToChannel(channel, format);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(png, 0, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
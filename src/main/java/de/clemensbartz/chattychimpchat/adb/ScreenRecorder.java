@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb;
+
+import com.android.ddmlib.DdmPreferences;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import de.clemensbartz.chattychimpchat.core.ScreenRecording;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Records the screen with screenrecord on the device, streaming the H.264 video to an output
+ * stream as it arrives instead of collecting it in memory.
+ *
+ * The video is a raw H.264 (Annex B) stream. Its frames carry no timestamps, so the recorder
+ * notes when each frame arrives by looking for the start of the first slice of every picture,
+ * and logs the input events sent meanwhile on the same clock. screenrecord stops by itself after
+ * three minutes.
+ *
+ * To stop, screenrecord is sent SIGINT, upon which it drains its encoder and exits; the rest
+ * of the video is read up to the end of its output, so the last frames are kept.
+ */
+final class ScreenRecorder implements IShellOutputReceiver {
+    // The shell prints its pid and then becomes screenrecord, so exactly that one can be stopped.
+    private static final String COMMAND = "echo $$; exec screenrecord --output-format=h264 -";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Where the scanner is in the H.264 stream.
+    private static final int SCAN = 0;
+    private static final int NAL_HEADER = 1;
+    private static final int SLICE_HEADER = 2;
+    // NAL unit types of coded slices, of non-IDR and IDR pictures.
+    private static final int NAL_SLICE = 1;
+    private static final int NAL_IDR_SLICE = 5;
+
+    private final IDevice device;
+    private final OutputStream out;
+    private final List<ScreenRecording.InputEvent> inputEvents =
+            new ArrayList<ScreenRecording.InputEvent>();
+    private AdbServiceConnection connection;
+    private Future<?> pump;
+    private volatile boolean stopped = false;
+    private volatile boolean closed = false;
+    private int pid;
+    private long startNanos;
+    private long bytes = 0;
+    private long[] frameTimesMs = new long[1024];
+    private int frames = 0;
+    private int zeros = 0;
+    private int state = SCAN;
+
+    /**
+     * @param device the device to record
+     * @param out where to write the video. It is not closed.
+     */
+    ScreenRecorder(IDevice device, OutputStream out) {
+        this.device = device;
+        this.out = out;
+    }
+
+    /**
+     * Start screenrecord and stream its output on an executor.
+     *
+     * @param executor the executor to run the transfer on
+     */
+    void start(ExecutorService executor) throws IOException {
+        connection = AdbServiceConnection.open(device, "exec:" + COMMAND,
+                DdmPreferences.getTimeOut());
+        final InputStream in = connection.getInputStream();
+        try {
+            pid = readPid(in);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        // Nothing is sent while the screen does not change.
+        connection.setReadTimeout(0);
+        startNanos = System.nanoTime();
+        pump = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        addOutput(buffer, 0, read);
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                } catch (IOException e) {
+                    // Closing the connection is the last resort to stop the recording.
+                    if (!closed) {
+                        throw e;
+                    }
+                } finally {
+                    connection.close();
+                }
+                return null;
+            }
+        });
+    }
+
+    private static int readPid(InputStream in) throws IOException {
+        int pid = 0;
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < '0' || c > '9') {
+                throw new IOException("Cannot start screenrecord");
+            }
+            pid = pid * 10 + c - '0';
+        }
+        return pid;
+    }
+
+    /**
+     * Log an input event sent to the device.
+     *
+     * @param description what the event was
+     */
+    void logInput(String description) {
+        long timeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        synchronized (inputEvents) {
+            inputEvents.add(new ScreenRecording.InputEvent(timeMs, description));
+        }
+    }
+
+    /**
+     * Stop screenrecord and wait for the rest of the video.
+     *
+     * @return the frame times and input events of the recording
+     * @throws IOException if the transfer or writing the video failed
+     */
+    ScreenRecording stop() throws IOException {
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        stopped = true;
+        int timeoutMs = DdmPreferences.getTimeOut();
+        try {
+            try {
+                interrupt(timeoutMs);
+                pump.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (IOException | TimeoutException e) {
+                // screenrecord did not stop; closing its output makes it exit.
+                closed = true;
+                connection.close();
+                pump.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while stopping the recording");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Recording failed", e.getCause());
+        }
+        out.flush();
+        synchronized (inputEvents) {
+            return new ScreenRecording(durationMs, bytes, Arrays.copyOf(frameTimesMs, frames),
+                    new ArrayList<ScreenRecording.InputEvent>(inputEvents));
+        }
+    }
+
+    /**
+     * Send SIGINT to screenrecord.
+     */
+    private void interrupt(int timeoutMs) throws IOException {
+        AdbServiceConnection kill = AdbServiceConnection.open(device, "exec:kill -2 " + pid,
+                timeoutMs);
+        try {
+            // Wait for kill to finish; its output does not matter, screenrecord may be gone.
+            InputStream in = kill.getInputStream();
+            while (in.read() >= 0) {
+                continue;
+            }
+        } finally {
+            kill.close();
+        }
+    }
+
+    @Override
+    public void addOutput(byte[] data, int offset, int length) {
+        try {
+            out.write(data, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the recording", e);
+        }
+        bytes += length;
+        scanFrames(data, offset, length);
+    }
+
+    /**
+     * Note the arrival of every picture, found by its first slice: a slice NAL unit whose
+     * first_mb_in_slice, the first Exp-Golomb code after the NAL header, is 0, which is a
+     * single 1 bit. Start codes may be split across chunks, so the scanner keeps its state.
+     */
+    private void scanFrames(byte[] data, int offset, int length) {
+        long timeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int value = data[i] & 0xFF;
+            if (state == NAL_HEADER) {
+                int type = value & 0x1F;
+                state = type == NAL_SLICE || type == NAL_IDR_SLICE ? SLICE_HEADER : SCAN;
+                zeros = 0;
+                continue;
+            }
+            if (state == SLICE_HEADER) {
+                if ((value & 0x80) != 0) {
+                    addFrame(timeMs);
+                }
+                state = SCAN;
+            }
+            if (value == 0) {
+                zeros++;
+            } else {
+                if (value == 1 && zeros >= 2) {
+                    state = NAL_HEADER;
+                }
+                zeros = 0;
+            }
+        }
+    }
+
+    private void addFrame(long timeMs) {
+        if (frames == frameTimesMs.length) {
+            frameTimesMs = Arrays.copyOf(frameTimesMs, frames * 2);
+        }
+        frameTimesMs[frames++] = timeMs;
+    }
+
+    @Override
+    public void flush() { }
+
+    @Override
+    public boolean isCancelled() {
+        return stopped;
+    }
+}
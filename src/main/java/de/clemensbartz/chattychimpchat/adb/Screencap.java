@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.DdmPreferences;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.RawImage;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import de.clemensbartz.chattychimpchat.core.ChimpRect;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Captures the screen with the screencap tool on the device, which can cut the output down or
+ * compress it before it is transferred.
+ *
+ * screencap writes a header of little-endian ints (width, height, pixel format and, since
+ * Android 8.0, the data space) followed by the pixels. For a region, the rows above it are
+ * skipped and those below it are never sent, so only the rows of the region cross adb; the
+ * columns are cut on the host.
+ */
+final class Screencap {
+    // Pixel formats of android.graphics.PixelFormat that screencap writes.
+    private static final int PIXEL_FORMAT_RGBA_8888 = 1;
+    private static final int PIXEL_FORMAT_RGBX_8888 = 2;
+    private static final int PIXEL_FORMAT_RGB_565 = 4;
+    private static final int PIXEL_FORMAT_BGRA_8888 = 5;
+    // The exec service, which does not mangle binary output, exists since Android 5.0.
+    private static final int MIN_EXEC_API_LEVEL = 21;
+    private static final int DATA_SPACE_API_LEVEL = 26;
+    // The smallest buffer a PNG is read into, whatever the size of the last one.
+    private static final int MIN_PNG_BUFFER = 64 * 1024;
+    // Cuts a known input with the same tools and options as a region capture; prints 134.
+    private static final String PROBE_REGION_TOOLS =
+            "echo 12345 | { dd bs=1 count=1 2>/dev/null; tail -c +2 | head -c 2; }";
+
+    private final IDevice device;
+    // The API level of the device, or -1 until known.
+    private int apiLevel = -1;
+    // The size of the header of raw output.
+    private int headerSize = 0;
+    // The length of the last PNG, to size the buffer for the next one.
+    private int lastPngLength = 256 * 1024;
+    // The geometry of the screen at the last capture, 0 until known.
+    private int width = 0;
+    private int height = 0;
+    private int format = 0;
+    // Whether the tools that cut the output on the device work, or null until known.
+    private Boolean regionTools = null;
+
+    Screencap(IDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * Capture a region of the screen.
+     *
+     * @param region the region; it is clipped to the screen. Its right and bottom edges are
+     *               exclusive.
+     * @return the region as an image of its own size, or null if the device cannot capture
+     *         regions, for instance as it lacks head, tail or dd
+     * @throws IllegalArgumentException if the region does not overlap the screen
+     */
+    synchronized RawImage captureRegion(ChimpRect region) throws IOException {
+        if (!hasExec()) {
+            return null;
+        }
+        int timeoutMs = DdmPreferences.getTimeOut();
+        if (!hasRegionTools(timeoutMs)) {
+            return null;
+        }
+        if (width == 0) {
+            AdbServiceConnection connection = AdbServiceConnection.open(device,
+                    "exec:screencap | head -c " + headerSize, timeoutMs);
+            try {
+                readHeader(connection.getInputStream());
+            } finally {
+                connection.close();
+            }
+        }
+
+        // The screen may have rotated since the geometry was last seen; then try once more.
+        for (int attempt = 0; ; attempt++) {
+            int bytesPerPixel = bytesPerPixel(format);
+            if (bytesPerPixel == 0) {
+                return null;
+            }
+            ChimpRect clipped = clip(region, width, height);
+            int rowBytes = width * bytesPerPixel;
+            long skip = (long) clipped.top * rowBytes;
+            long length = (long) clipped.getHeight() * rowBytes;
+            String command = "screencap | { dd bs=1 count=" + headerSize + " 2>/dev/null;"
+                    + " tail -c +" + (skip + 1) + " | head -c " + length + "; }";
+            AdbServiceConnection connection =
+                    AdbServiceConnection.open(device, "exec:" + command, timeoutMs);
+            try {
+                DataInputStream in = connection.getInputStream();
+                int expectedWidth = width;
+                int expectedFormat = format;
+                readHeader(in);
+                if ((width != expectedWidth || format != expectedFormat) && attempt == 0) {
+                    continue;
+                }
+                if (width != expectedWidth || format != expectedFormat) {
+                    throw new IOException("The screen changed while capturing");
+                }
+                byte[] rows = new byte[(int) length];
+                in.readFully(rows);
+                return crop(rows, rowBytes, clipped, bytesPerPixel);
+            } finally {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Capture the screen as a PNG, compressed on the device.
+     *
+     * @return the PNG, decoded when its pixels are first needed
+     */
+    synchronized PngChimpImage capturePng() throws IOException, TimeoutException,
+            AdbCommandRejectedException, ShellCommandUnresponsiveException {
+        if (!hasExec()) {
+            // Older devices send the output of shell commands through a terminal, which turns
+            // every \n into \r\n; undo that.
+            PngOutputReceiver receiver = new PngOutputReceiver(lastPngLength);
+            device.executeShellCommand("screencap -p", receiver);
+            int length = receiver.undoLineEndings();
+            if (length == 0) {
+                throw new IOException("screencap -p returned no image");
+            }
+            lastPngLength = length;
+            return new PngChimpImage(receiver.buffer, length);
+        }
+        AdbServiceConnection connection = AdbServiceConnection.open(device,
+                "exec:screencap -p", DdmPreferences.getTimeOut());
+        try {
+            DataInputStream in = connection.getInputStream();
+            byte[] png = new byte[Math.max(lastPngLength + lastPngLength / 4, MIN_PNG_BUFFER)];
+            int length = 0;
+            int read;
+            while ((read = in.read(png, length, png.length - length)) >= 0) {
+                length += read;
+                if (length == png.length) {
+                    png = Arrays.copyOf(png, png.length * 2);
+                }
+            }
+            if (length == 0) {
+                throw new IOException("screencap -p returned no image");
+            }
+            lastPngLength = length;
+            return new PngChimpImage(png, length);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Collects the PNG written by screencap to the output of a shell command.
+     */
+    private static final class PngOutputReceiver implements IShellOutputReceiver {
+        private byte[] buffer;
+        private int length = 0;
+
+        PngOutputReceiver(int capacity) {
+            buffer = new byte[Math.max(capacity, MIN_PNG_BUFFER)];
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int count) {
+            if (length + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            }
+            System.arraycopy(data, offset, buffer, length, count);
+            length += count;
+        }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        /**
+         * Turn every \r\n back into \n.
+         *
+         * @return the length of the PNG
+         */
+        int undoLineEndings() {
+            int out = 0;
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == '\r' && i + 1 < length && buffer[i + 1] == '\n') {
+                    continue;
+                }
+                buffer[out++] = buffer[i];
+            }
+            return out;
+        }
+    }
+
+    private boolean hasExec() {
+        if (apiLevel < 0) {
+            try {
+                apiLevel = Integer.parseInt(device.getProperty(IDevice.PROP_BUILD_API_LEVEL));
+            } catch (NumberFormatException e) {
+                apiLevel = 0;
+            }
+            headerSize = apiLevel >= DATA_SPACE_API_LEVEL ? 16 : 12;
+        }
+        return apiLevel >= MIN_EXEC_API_LEVEL;
+    }
+
+    /**
+     * Check once whether head, tail and dd exist and take the options a region capture uses;
+     * the toolbox of some devices has none of them or older versions.
+     */
+    private boolean hasRegionTools(int timeoutMs) throws IOException {
+        if (regionTools == null) {
+            AdbServiceConnection connection = AdbServiceConnection.open(device,
+                    "exec:" + PROBE_REGION_TOOLS, timeoutMs);
+            try {
+                DataInputStream in = connection.getInputStream();
+                byte[] output = new byte[4];
+                int length = 0;
+                int read;
+                while (length < output.length
+                        && (read = in.read(output, length, output.length - length)) >= 0) {
+                    length += read;
+                }
+                regionTools = length == 3 && output[0] == '1' && output[1] == '3'
+                        && output[2] == '4';
+            } finally {
+                connection.close();
+            }
+        }
+        return regionTools;
+    }
+
+    private void readHeader(DataInputStream in) throws IOException {
+        byte[] header = new byte[headerSize];
+        in.readFully(header);
+        ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        width = buffer.getInt();
+        height = buffer.getInt();
+        format = buffer.getInt();
+    }
+
+    /**
+     * Clip a region to the screen.
+     *
+     * @throws IllegalArgumentException if the region does not overlap the screen
+     */
+    static ChimpRect clip(ChimpRect region, int width, int height) {
+        ChimpRect clipped = new ChimpRect(Math.max(0, region.left), Math.max(0, region.top),
+                Math.min(width, region.right), Math.min(height, region.bottom));
+        if (clipped.left >= clipped.right || clipped.top >= clipped.bottom) {
+            throw new IllegalArgumentException("Region " + region + " is not on the screen");
+        }
+        return clipped;
+    }
+
+    private static int bytesPerPixel(int format) {
+        switch (format) {
+            case PIXEL_FORMAT_RGBA_8888:
+            case PIXEL_FORMAT_RGBX_8888:
+            case PIXEL_FORMAT_BGRA_8888:
+                return 4;
+            case PIXEL_FORMAT_RGB_565:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Cut the columns of the region out of its full-width rows.
+     */
+    private RawImage crop(byte[] rows, int rowBytes, ChimpRect region, int bytesPerPixel) {
+        RawImage image = new RawImage();
+        image.version = 1;
+        image.width = region.getWidth();
+        image.height = region.getHeight();
+        image.bpp = bytesPerPixel * 8;
+        int regionRowBytes = image.width * bytesPerPixel;
+        image.size = regionRowBytes * image.height;
+        if (regionRowBytes == rowBytes) {
+            image.data = rows;
+        } else {
+            image.data = new byte[image.size];
+            for (int y = 0; y < image.height; y++) {
+                System.arraycopy(rows, y * rowBytes + region.left * bytesPerPixel,
+                        image.data, y * regionRowBytes, regionRowBytes);
+            }
+        }
+
+        switch (format) {
+            case PIXEL_FORMAT_RGB_565:
+                image.red_offset = 11;
+                image.red_length = 5;
+                image.green_offset = 5;
+                image.green_length = 6;
+                image.blue_offset = 0;
+                image.blue_length = 5;
+                break;
+            case PIXEL_FORMAT_BGRA_8888:
+                image.blue_offset = 0;
+                image.blue_length = 8;
+                image.green_offset = 8;
+                image.green_length = 8;
+                image.red_offset = 16;
+                image.red_length = 8;
+                image.alpha_offset = 24;
+                image.alpha_length = 8;
+                break;
+            default:
+                image.red_offset = 0;
+                image.red_length = 8;
+                image.green_offset = 8;
+                image.green_length = 8;
+                image.blue_offset = 16;
+                image.blue_length = 8;
+                image.alpha_offset = 24;
+                image.alpha_length = format == PIXEL_FORMAT_RGBX_8888 ? 0 : 8;
+                break;
+        }
+        return image;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the bytes transferred and the time taken by the snapshots of one kind, so the faster
+ * kind can be picked for each device and connection.
+ *
+ * This class is thread-safe.
+ */
+public class SnapshotStats {
+    private long captures = 0;
+    private long totalBytes = 0;
+    private long totalNanos = 0;
+    private long lastBytes = 0;
+    private long lastNanos = 0;
+
+    synchronized void record(long bytes, long nanos) {
+        captures++;
+        totalBytes += bytes;
+        totalNanos += nanos;
+        lastBytes = bytes;
+        lastNanos = nanos;
+    }
+
+    /**
+     * @return the number of snapshots taken
+     */
+    public synchronized long getCaptures() {
+        return captures;
+    }
+
+    /**
+     * @return the bytes transferred for all snapshots
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the bytes transferred per snapshot on average, 0 if none was taken
+     */
+    public synchronized long getAverageBytes() {
+        return captures == 0 ? 0 : totalBytes / captures;
+    }
+
+    /**
+     * @return the time per snapshot on average in milliseconds, 0 if none was taken
+     */
+    public synchronized double getAverageLatencyMs() {
+        return captures == 0 ? 0 : totalNanos / (double) captures / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the bytes transferred for the last snapshot
+     */
+    public synchronized long getLastBytes() {
+        return lastBytes;
+    }
+
+    /**
+     * @return the time the last snapshot took in milliseconds
+     */
+    public synchronized double getLastLatencyMs() {
+        return lastNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d captures, %d bytes and %.1f ms on average", captures,
+                getAverageBytes(), getAverageLatencyMs());
+    }
+}
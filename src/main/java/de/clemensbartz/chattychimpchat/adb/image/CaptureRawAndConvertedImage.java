@@ -24,10 +24,9 @@ import de.clemensbartz.chattychimpchat.core.IChimpBackend;
 import de.clemensbartz.chattychimpchat.core.IChimpImage;
 import de.clemensbartz.chattychimpchat.core.IChimpDevice;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.Paths;
 
 /**
  * Utility program to capture raw and converted images from a device and write them to a file.
@@ -98,9 +97,7 @@ public class CaptureRawAndConvertedImage {
     }
 
     private static void writeOutImage(RawImage screenshot, String name) throws IOException {
-        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(name));
-        out.writeObject(new ChimpRawImage(screenshot));
-        out.close();
+        RawImageFile.write(screenshot, Paths.get(name), 1);
     }
 
     public static void main(String[] args) throws IOException, AdbCommandRejectedException, InterruptedException,
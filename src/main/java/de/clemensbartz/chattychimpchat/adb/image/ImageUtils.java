@@ -17,14 +17,10 @@ package de.clemensbartz.chattychimpchat.adb.image;
 
 import com.android.ddmlib.RawImage;
 
-import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
-import java.awt.image.DataBufferByte;
-import java.awt.image.PixelInterleavedSampleModel;
-import java.awt.image.Raster;
-import java.awt.image.WritableRaster;
-import java.util.Hashtable;
+import java.awt.image.DataBufferInt;
+import java.util.stream.IntStream;
+
 /**
  * Useful image related functions.
  */
@@ -32,25 +28,40 @@ public class ImageUtils {
     // Utility class
     private ImageUtils() { }
 
-    private static Hashtable<?,?> EMPTY_HASH = new Hashtable();
-    private static int[] BAND_OFFSETS_32 = { 0, 1, 2, 3 };
-    private static int[] BAND_OFFSETS_16 = { 0, 1 };
+    // Frames with at least this many pixels are decoded in parallel bands of rows.
+    private static final int PARALLEL_THRESHOLD_PIXELS = 512 * 1024;
+    private static final int MIN_BAND_ROWS = 64;
+
+    // ARGB value of every RGB_565 pixel, indexed by the little-endian 16 bit value.
+    private static final int[] RGB_565_TO_ARGB = new int[1 << 16];
+    static {
+        for (int pixel = 0; pixel < RGB_565_TO_ARGB.length; pixel++) {
+            int red = ((pixel >> 11) & 0x01F) << 3;
+            int green = ((pixel >> 5) & 0x03F) << 2;
+            int blue = (pixel & 0x01F) << 3;
+            RGB_565_TO_ARGB[pixel] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+        }
+    }
 
     /**
      * Convert a raw image into a buffered image.
      *
      * @param rawImage the raw image to convert
      * @param image the old image to (possibly) recycle
-     * @return the converted image
+     * @return the converted image, of type {@link BufferedImage#TYPE_INT_ARGB}
      */
     public static BufferedImage convertImage(RawImage rawImage, BufferedImage image) {
-        switch (rawImage.bpp) {
-            case 16:
-                return rawImage16toARGB(image, rawImage);
-            case 32:
-                return rawImage32toARGB(rawImage);
+        if (rawImage.bpp != 16 && rawImage.bpp != 32) {
+            return null;
         }
-        return null;
+        if (image == null || image.getType() != BufferedImage.TYPE_INT_ARGB
+                || image.getWidth() != rawImage.width || image.getHeight() != rawImage.height) {
+            image = new BufferedImage(rawImage.width, rawImage.height,
+                    BufferedImage.TYPE_INT_ARGB);
+        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        convertToArgb(rawImage, pixels);
+        return image;
     }
 
     /**
@@ -63,6 +74,252 @@ public class ImageUtils {
         return convertImage(rawImage, null);
     }
 
+    /**
+     * Decode a raw image into ARGB pixels, row by row from the top left. 32 bpp images in
+     * RGBA_8888 and BGRA_8888 and 16 bpp images in RGB_565 take dedicated loops; other 32 bpp
+     * layouts are decoded through their channel offsets and lengths. Large images are decoded
+     * in parallel bands of rows.
+     *
+     * @param rawImage the image to decode
+     * @param pixels where to put the pixels, or null to allocate a new array. Must hold at
+     *               least width * height values.
+     * @return the pixels
+     * @throws IllegalArgumentException if the image is neither 16 nor 32 bpp
+     */
+    public static int[] convertToArgb(final RawImage rawImage, int[] pixels) {
+        if (rawImage.bpp != 16 && rawImage.bpp != 32) {
+            throw new IllegalArgumentException("Unsupported bpp: " + rawImage.bpp);
+        }
+        final int width = rawImage.width;
+        final int height = rawImage.height;
+        if (pixels == null) {
+            pixels = new int[width * height];
+        }
+        final int[] out = pixels;
+        if (width * height < PARALLEL_THRESHOLD_PIXELS) {
+            convertRows(rawImage, out, 0, height);
+            return out;
+        }
+        int bands = Math.min(Runtime.getRuntime().availableProcessors() * 2,
+                Math.max(1, height / MIN_BAND_ROWS));
+        final int rowsPerBand = (height + bands - 1) / bands;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int firstRow = band * rowsPerBand;
+            convertRows(rawImage, out, firstRow, Math.min(height, firstRow + rowsPerBand));
+        });
+        return out;
+    }
+
+    /**
+     * Decode the rows in [firstRow, endRow) of a raw image into ARGB pixels.
+     */
+    private static void convertRows(RawImage rawImage, int[] pixels, int firstRow, int endRow) {
+        int start = firstRow * rawImage.width;
+        convertPixels(rawImage, start, endRow * rawImage.width - start, pixels, start);
+    }
+
+    /**
+     * Decode consecutive pixels of a raw image, of 16 or 32 bpp, into ARGB values.
+     *
+     * @param rawImage the image
+     * @param first the index of the first pixel, y * width + x
+     * @param count the number of pixels
+     * @param pixels where to put the values
+     * @param offset the index in pixels of the first value
+     */
+    static void convertPixels(RawImage rawImage, int first, int count, int[] pixels,
+            int offset) {
+        int end = offset + count;
+        byte[] data = rawImage.data;
+        if (rawImage.bpp == 16) {
+            for (int i = offset, in = first * 2; i < end; i++, in += 2) {
+                pixels[i] = RGB_565_TO_ARGB[(data[in] & 0xFF) | ((data[in + 1] & 0xFF) << 8)];
+            }
+            return;
+        }
+
+        boolean eightBitColors = rawImage.red_length == 8 && rawImage.green_length == 8
+                && rawImage.blue_length == 8 && rawImage.green_offset == 8;
+        boolean noAlpha = rawImage.alpha_length == 0;
+        boolean alphaLast = rawImage.alpha_length == 8 && rawImage.alpha_offset == 24;
+        // Without an alpha channel the fourth byte is padding and the pixel is opaque.
+        int opaque = noAlpha ? 0xFF000000 : 0;
+        int alphaMask = noAlpha ? 0 : 0xFF;
+        if (eightBitColors && (noAlpha || alphaLast)
+                && rawImage.red_offset == 0 && rawImage.blue_offset == 16) {
+            // RGBA_8888 (or RGBX_8888): bytes R, G, B, A.
+            for (int i = offset, in = first * 4; i < end; i++, in += 4) {
+                pixels[i] = opaque | ((data[in + 3] & alphaMask) << 24)
+                        | ((data[in] & 0xFF) << 16) | ((data[in + 1] & 0xFF) << 8)
+                        | (data[in + 2] & 0xFF);
+            }
+        } else if (eightBitColors && (noAlpha || alphaLast)
+                && rawImage.blue_offset == 0 && rawImage.red_offset == 16) {
+            // BGRA_8888 (or BGRX_8888): bytes B, G, R, A, which is ARGB in little-endian order.
+            for (int i = offset, in = first * 4; i < end; i++, in += 4) {
+                pixels[i] = opaque | ((data[in + 3] & alphaMask) << 24)
+                        | ((data[in + 2] & 0xFF) << 16) | ((data[in + 1] & 0xFF) << 8)
+                        | (data[in] & 0xFF);
+            }
+        } else {
+            convertPixelsGeneric32(rawImage, first, pixels, offset, end);
+        }
+    }
+
+    /**
+     * Decode 32 bpp pixels into pixels[offset, end) through the channel offsets and lengths of
+     * the raw image.
+     */
+    private static void convertPixelsGeneric32(RawImage rawImage, int first, int[] pixels,
+            int offset, int end) {
+        byte[] data = rawImage.data;
+        int redOffset = rawImage.red_offset;
+        int redMask = getMask(rawImage.red_length);
+        int redShift = 8 - rawImage.red_length;
+        int greenOffset = rawImage.green_offset;
+        int greenMask = getMask(rawImage.green_length);
+        int greenShift = 8 - rawImage.green_length;
+        int blueOffset = rawImage.blue_offset;
+        int blueMask = getMask(rawImage.blue_length);
+        int blueShift = 8 - rawImage.blue_length;
+        boolean hasAlpha = rawImage.alpha_length != 0;
+        int alphaOffset = rawImage.alpha_offset;
+        int alphaMask = getMask(rawImage.alpha_length);
+        int alphaShift = 8 - rawImage.alpha_length;
+        for (int i = offset, in = first * 4; i < end; i++, in += 4) {
+            int value = (data[in] & 0xFF) | ((data[in + 1] & 0xFF) << 8)
+                    | ((data[in + 2] & 0xFF) << 16) | ((data[in + 3] & 0xFF) << 24);
+            int alpha = hasAlpha ? ((value >>> alphaOffset) & alphaMask) << alphaShift : 0xFF;
+            int red = ((value >>> redOffset) & redMask) << redShift;
+            int green = ((value >>> greenOffset) & greenMask) << greenShift;
+            int blue = ((value >>> blueOffset) & blueMask) << blueShift;
+            pixels[i] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+        }
+    }
+
+    /**
+     * Decode a rectangle of a raw image into ARGB values, without decoding the rest of it.
+     *
+     * @param rawImage the image, of 16 or 32 bpp
+     * @param x the left edge of the rectangle
+     * @param y the top edge of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @param pixels where to put the values, or null to allocate a new array
+     * @param offset the index in pixels of the top left value
+     * @param scansize the distance in pixels between the starts of two rows
+     * @return the pixels
+     * @throws ArrayIndexOutOfBoundsException if the rectangle is not within the image
+     */
+    public static int[] convertToArgb(RawImage rawImage, int x, int y, int w, int h,
+            int[] pixels, int offset, int scansize) {
+        if (rawImage.bpp != 16 && rawImage.bpp != 32) {
+            throw new IllegalArgumentException("Unsupported bpp: " + rawImage.bpp);
+        }
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > rawImage.width
+                || y + h > rawImage.height) {
+            throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+        }
+        if (pixels == null) {
+            pixels = new int[offset + h * scansize];
+        }
+        for (int row = 0; row < h; row++) {
+            convertPixels(rawImage, (y + row) * rawImage.width + x, w, pixels,
+                    offset + row * scansize);
+        }
+        return pixels;
+    }
+
+    /**
+     * Decode a single pixel of a raw image.
+     *
+     * @param rawImage the image, of 16 or 32 bpp
+     * @param x the column
+     * @param y the row
+     * @return the pixel as an ARGB value
+     * @throws ArrayIndexOutOfBoundsException if the pixel is not within the image
+     */
+    public static int getPixel(RawImage rawImage, int x, int y) {
+        int[] pixel = new int[1];
+        convertToArgb(rawImage, x, y, 1, 1, pixel, 0, 1);
+        return pixel[0];
+    }
+
+    /**
+     * Copy a rectangle of a raw image into a raw image of its own.
+     *
+     * @param rawImage the image
+     * @param x the left edge of the rectangle
+     * @param y the top edge of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @return the copy, with the same pixel layout
+     * @throws ArrayIndexOutOfBoundsException if the rectangle is not within the image
+     */
+    public static RawImage crop(RawImage rawImage, int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > rawImage.width
+                || y + h > rawImage.height) {
+            throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+        }
+        int bytesPerPixel = rawImage.bpp >> 3;
+        RawImage cropped = new RawImage();
+        cropped.version = rawImage.version;
+        cropped.bpp = rawImage.bpp;
+        cropped.width = w;
+        cropped.height = h;
+        cropped.size = w * h * bytesPerPixel;
+        cropped.red_offset = rawImage.red_offset;
+        cropped.red_length = rawImage.red_length;
+        cropped.green_offset = rawImage.green_offset;
+        cropped.green_length = rawImage.green_length;
+        cropped.blue_offset = rawImage.blue_offset;
+        cropped.blue_length = rawImage.blue_length;
+        cropped.alpha_offset = rawImage.alpha_offset;
+        cropped.alpha_length = rawImage.alpha_length;
+        cropped.data = new byte[cropped.size];
+        int rowBytes = rawImage.width * bytesPerPixel;
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(rawImage.data, (y + row) * rowBytes + x * bytesPerPixel,
+                    cropped.data, row * w * bytesPerPixel, w * bytesPerPixel);
+        }
+        return cropped;
+    }
+
+    /**
+     * Hash every row of a raw image, straight from its bytes. Comparing the hashes of two frames
+     * tells which rows changed without decoding either of them.
+     *
+     * @param rawImage the image
+     * @param hashes the array to reuse if it has one entry per row, or null
+     * @return the hashes, one per row
+     */
+    public static long[] hashRows(RawImage rawImage, long[] hashes) {
+        if (hashes == null || hashes.length != rawImage.height) {
+            hashes = new long[rawImage.height];
+        }
+        byte[] data = rawImage.data;
+        int rowBytes = rawImage.width * (rawImage.bpp >> 3);
+        for (int y = 0; y < rawImage.height; y++) {
+            int start = y * rowBytes;
+            int end = start + rowBytes;
+            long hash = 0x9E3779B97F4A7C15L;
+            int i = start;
+            // Eight bytes at a time, then the rest.
+            for (; i + 8 <= end; i += 8) {
+                long value = (data[i] & 0xFFL) | (data[i + 1] & 0xFFL) << 8
+                        | (data[i + 2] & 0xFFL) << 16 | (data[i + 3] & 0xFFL) << 24
+                        | (data[i + 4] & 0xFFL) << 32 | (data[i + 5] & 0xFFL) << 40
+                        | (data[i + 6] & 0xFFL) << 48 | (data[i + 7] & 0xFFL) << 56;
+                hash = Long.rotateLeft((hash ^ value) * 0xC2B2AE3D27D4EB4FL, 31);
+            }
+            for (; i < end; i++) {
+                hash = Long.rotateLeft((hash ^ (data[i] & 0xFFL)) * 0xC2B2AE3D27D4EB4FL, 31);
+            }
+            hashes[y] = hash;
+        }
+        return hashes;
+    }
+
     static int getMask(int length) {
         int res = 0;
         for (int i = 0 ; i < length ; i++) {
@@ -71,30 +328,4 @@ public class ImageUtils {
 
         return res;
     }
-
-    private static BufferedImage rawImage32toARGB(RawImage rawImage) {
-        // Do as much as we can to not make an extra copy of the data.  This is just a bunch of
-        // classes that wrap's the raw byte array of the image data.
-        DataBufferByte dataBuffer = new DataBufferByte(rawImage.data, rawImage.size);
-
-        PixelInterleavedSampleModel sampleModel =
-            new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, rawImage.width, rawImage.height,
-                    4, rawImage.width * 4, BAND_OFFSETS_32);
-        WritableRaster raster = Raster.createWritableRaster(sampleModel, dataBuffer,
-                new Point(0, 0));
-        return new BufferedImage(new ThirtyTwoBitColorModel(rawImage), raster, false, EMPTY_HASH);
-    }
-
-    private static BufferedImage rawImage16toARGB(BufferedImage image, RawImage rawImage) {
-        // Do as much as we can to not make an extra copy of the data.  This is just a bunch of
-        // classes that wrap's the raw byte array of the image data.
-        DataBufferByte dataBuffer = new DataBufferByte(rawImage.data, rawImage.size);
-
-        PixelInterleavedSampleModel sampleModel =
-            new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, rawImage.width, rawImage.height,
-                    2, rawImage.width * 2, BAND_OFFSETS_16);
-        WritableRaster raster = Raster.createWritableRaster(sampleModel, dataBuffer,
-                new Point(0, 0));
-        return new BufferedImage(new SixteenBitColorModel(rawImage), raster, false, EMPTY_HASH);
-    }
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb.image;
+
+import com.android.ddmlib.RawImage;
+import de.clemensbartz.chattychimpchat.adb.AdbChimpImage;
+import de.clemensbartz.chattychimpchat.core.IChimpImage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Files of raw frame buffers, as captured from a device.
+ *
+ * A file holds any number of records, one per frame, one after the other. Each record is a
+ * 72 byte header of little-endian ints followed by the pixel data:
+ *
+ * <pre>
+ *   magic            "CCRI"
+ *   format version   1
+ *   flags            bit 0: the pixel data is zlib compressed
+ *   version, bpp, size, width, height,
+ *   red_offset, red_length, blue_offset, blue_length,
+ *   green_offset, green_length, alpha_offset, alpha_length
+ *                    the fields of the {@link RawImage}; size is the uncompressed length
+ *   stored length    the length of the pixel data in the file, as a long
+ *   data             the pixel data, as sent by the device
+ * </pre>
+ *
+ * Uncompressed records are written and read with little more than a copy of the pixels; the
+ * reader maps the file into memory rather than reading it through streams.
+ */
+public final class RawImageFile {
+    private static final int MAGIC = 'C' | 'C' << 8 | 'R' << 16 | 'I' << 24;
+    private static final int FORMAT_VERSION = 1;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int HEADER_SIZE = 72;
+
+    // Utility class
+    private RawImageFile() { }
+
+    /**
+     * Writes frames to a file.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final Deflater deflater;
+        private final ByteBuffer header =
+                ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private byte[] compressed = new byte[0];
+
+        /**
+         * @param channel the channel to write to, closed with the writer
+         * @param compressionLevel the zlib level to compress the pixels with, from 1 to 9, or
+         *                         0 to store them as they are
+         */
+        public Writer(FileChannel channel, int compressionLevel) {
+            if (compressionLevel < 0 || compressionLevel > 9) {
+                throw new IllegalArgumentException("Compression level must be from 0 to 9: "
+                        + compressionLevel);
+            }
+            this.channel = channel;
+            this.deflater = compressionLevel == 0 ? null : new Deflater(compressionLevel);
+        }
+
+        /**
+         * Create a file, replacing any file of the same name.
+         *
+         * @param path the file
+         * @param compressionLevel the zlib level to compress the pixels with, from 1 to 9, or
+         *                         0 to store them as they are
+         * @return the writer
+         */
+        public static Writer create(Path path, int compressionLevel) throws IOException {
+            return new Writer(FileChannel.open(path, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING),
+                    compressionLevel);
+        }
+
+        /**
+         * Append a frame.
+         *
+         * @param image the frame
+         */
+        public void write(RawImage image) throws IOException {
+            ByteBuffer data;
+            if (deflater == null) {
+                data = ByteBuffer.wrap(image.data, 0, image.size);
+            } else {
+                deflater.reset();
+                deflater.setInput(image.data, 0, image.size);
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == compressed.length) {
+                        compressed = Arrays.copyOf(compressed,
+                                Math.max(64 * 1024, compressed.length * 2));
+                    }
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                data = ByteBuffer.wrap(compressed, 0, length);
+            }
+
+            header.clear();
+            header.putInt(MAGIC).putInt(FORMAT_VERSION)
+                    .putInt(deflater == null ? 0 : FLAG_COMPRESSED)
+                    .putInt(image.version).putInt(image.bpp).putInt(image.size)
+                    .putInt(image.width).putInt(image.height)
+                    .putInt(image.red_offset).putInt(image.red_length)
+                    .putInt(image.blue_offset).putInt(image.blue_length)
+                    .putInt(image.green_offset).putInt(image.green_length)
+                    .putInt(image.alpha_offset).putInt(image.alpha_length)
+                    .putLong(data.remaining());
+            header.flip();
+            ByteBuffer[] buffers = { header, data };
+            while (header.hasRemaining() || data.hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (deflater != null) {
+                deflater.end();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the frames of a file in order, mapping each into memory.
+     */
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final long length;
+        private final Inflater inflater = new Inflater();
+        private byte[] compressed = new byte[0];
+        private long position = 0;
+
+        /**
+         * @param channel the channel to read from, closed with the reader
+         */
+        public Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.length = channel.size();
+        }
+
+        /**
+         * Open a file.
+         *
+         * @param path the file
+         * @return the reader
+         */
+        public static Reader open(Path path) throws IOException {
+            return new Reader(FileChannel.open(path, StandardOpenOption.READ));
+        }
+
+        /**
+         * @return true if there is another frame
+         */
+        public boolean hasNext() {
+            return position < length;
+        }
+
+        /**
+         * Read the next frame.
+         *
+         * @return the frame
+         * @throws IOException if there is no frame left or the file is corrupt
+         */
+        public RawImage next() throws IOException {
+            return next(null);
+        }
+
+        /**
+         * Read the next frame into an image, reusing its pixel buffer if it has the right size.
+         *
+         * @param reuse the image to read into, or null for a new one
+         * @return the frame
+         * @throws IOException if there is no frame left or the file is corrupt
+         */
+        public RawImage next(RawImage reuse) throws IOException {
+            if (length - position < HEADER_SIZE) {
+                throw new IOException("No frame left at " + position);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, position, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a raw image record at " + position);
+            }
+            int flags = header.getInt();
+            RawImage image = reuse != null ? reuse : new RawImage();
+            image.version = header.getInt();
+            image.bpp = header.getInt();
+            image.size = header.getInt();
+            image.width = header.getInt();
+            image.height = header.getInt();
+            image.red_offset = header.getInt();
+            image.red_length = header.getInt();
+            image.blue_offset = header.getInt();
+            image.blue_length = header.getInt();
+            image.green_offset = header.getInt();
+            image.green_length = header.getInt();
+            image.alpha_offset = header.getInt();
+            image.alpha_length = header.getInt();
+            long stored = header.getLong();
+            if (image.size < 0 || stored < 0 || stored > length - position - HEADER_SIZE
+                    || stored > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt raw image record at " + position);
+            }
+
+            if (image.data == null || image.data.length != image.size) {
+                image.data = new byte[image.size];
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position + HEADER_SIZE, stored);
+            if ((flags & FLAG_COMPRESSED) == 0) {
+                if (stored != image.size) {
+                    throw new IOException("Corrupt raw image record at " + position);
+                }
+                data.get(image.data);
+            } else {
+                if (compressed.length < stored) {
+                    compressed = new byte[(int) stored];
+                }
+                data.get(compressed, 0, (int) stored);
+                inflater.reset();
+                inflater.setInput(compressed, 0, (int) stored);
+                try {
+                    if (inflater.inflate(image.data) != image.size || !inflater.finished()) {
+                        throw new IOException("Corrupt raw image record at " + position);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt raw image record at " + position, e);
+                }
+            }
+            position += HEADER_SIZE + stored;
+            return image;
+        }
+
+        /**
+         * Read the next frame as an image.
+         *
+         * @return the frame
+         * @throws IOException if there is no frame left or the file is corrupt
+         */
+        public IChimpImage nextImage() throws IOException {
+            return new AdbChimpImage(next());
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+    }
+
+    /**
+     * Write a single frame to a file.
+     *
+     * @param image the frame
+     * @param path the file
+     * @param compressionLevel the zlib level to compress the pixels with, from 1 to 9, or 0 to
+     *                         store them as they are
+     */
+    public static void write(RawImage image, Path path, int compressionLevel)
+            throws IOException {
+        Writer writer = Writer.create(path, compressionLevel);
+        try {
+            writer.write(image);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Read the first frame of a file.
+     *
+     * @param path the file
+     * @return the frame
+     */
+    public static RawImage read(Path path) throws IOException {
+        Reader reader = Reader.open(path);
+        try {
+            return reader.next();
+        } finally {
+            reader.close();
+        }
+    }
+}
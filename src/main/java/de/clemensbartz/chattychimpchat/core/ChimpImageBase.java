@@ -17,12 +17,21 @@ package de.clemensbartz.chattychimpchat.core;
 
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,39 +53,41 @@ public abstract class ChimpImageBase implements IChimpImage {
     @Override
     public abstract BufferedImage createBufferedImage();
 
-    // Cache the BufferedImage so we don't have to generate it every time.
-    private WeakReference<BufferedImage> cachedBufferedImage = null;
+    // Cache the ARGB pixels for comparisons of images that are not plain ARGB.
+    private WeakReference<int[]> cachedPixels = null;
+    private volatile Long perceptualHash = null;
 
     /**
-     * Utility method to handle getting the BufferedImage and managing the cache.
+     * Utility method to handle getting the BufferedImage and managing the cache. Decoded images
+     * are kept in the shared {@link DecodedImageCache}.
      *
      * @return the BufferedImage for this image.
      */
     @Override
     public BufferedImage getBufferedImage() {
-        // Check the cache first
-        if (cachedBufferedImage != null) {
-            BufferedImage img = cachedBufferedImage.get();
-            if (img != null) {
-                return img;
-            }
-        }
-
-        // Not in the cache, so create it and cache it.
-        BufferedImage img = createBufferedImage();
-        cachedBufferedImage = new WeakReference<BufferedImage>(img);
-        return img;
+        return DecodedImageCache.getDefault().get(this);
     }
 
     @Override
     public byte[] convertToBytes(String format) throws IOException{
-      BufferedImage argb = convertSnapshot();
-
       ByteArrayOutputStream os = new ByteArrayOutputStream();
-      ImageIO.write(argb, format, os);
+      writeToChannel(Channels.newChannel(os), format);
       return os.toByteArray();
     }
 
+    @Override
+    public void writeToChannel(WritableByteChannel channel, String format) throws IOException {
+        if (isPng(format)) {
+            new PngEncoder().encode(this, channel);
+            return;
+        }
+        ImageIO.write(convertSnapshot(), format, Channels.newOutputStream(channel));
+    }
+
+    private static boolean isPng(String format) {
+        return "png".equalsIgnoreCase(format);
+    }
+
     @Override
     public boolean writeToFile(String path, String format) throws IOException {
         if (format != null) {
@@ -87,6 +98,9 @@ public abstract class ChimpImageBase implements IChimpImage {
             return writeToFileHelper(path, "png");
         }
         String ext = path.substring(offset + 1);
+        if (isPng(ext)) {
+            return writeToFileHelper(path, "png");
+        }
         Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(ext);
         if (!writers.hasNext()) {
             return writeToFileHelper(path, "png");
@@ -113,8 +127,17 @@ public abstract class ChimpImageBase implements IChimpImage {
         return image.getRGB(x, y);
     }
 
+    @Override
+    public int[] getPixels(int x, int y, int w, int h) {
+        return getBufferedImage().getRGB(x, y, w, h, null, 0, w);
+    }
+
     private BufferedImage convertSnapshot() {
         BufferedImage image = getBufferedImage();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            // Already what ImageIO should get; no need to redraw it.
+            return image;
+        }
 
         // Convert the image to ARGB so ImageIO writes it out nicely
         BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(),
@@ -126,14 +149,93 @@ public abstract class ChimpImageBase implements IChimpImage {
     }
 
     private boolean writeToFileHelper(String path, String format) throws IOException {
+        if (isPng(format)) {
+            FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                writeToChannel(channel, format);
+            } finally {
+                channel.close();
+            }
+            return true;
+        }
         BufferedImage argb = convertSnapshot();
 
         ImageIO.write(argb, format, new File(path));
         return true;
     }
 
+    /**
+     * Get the pixels of this image as ARGB values, row by row from the top left. If the
+     * BufferedImage is a plain TYPE_INT_ARGB image, this is its own pixel array; otherwise the
+     * pixels are converted once and cached as long as memory allows.
+     *
+     * @return the pixels. They are shared and must not be modified.
+     */
+    public int[] getArgbPixels() {
+        if (cachedPixels != null) {
+            int[] pixels = cachedPixels.get();
+            if (pixels != null) {
+                return pixels;
+            }
+        }
+        int[] pixels = toArgbPixels(getBufferedImage());
+        cachedPixels = new WeakReference<int[]>(pixels);
+        return pixels;
+    }
+
+    /**
+     * Get the ARGB pixels of any image, sharing the pixel array of a ChimpImageBase.
+     *
+     * @param image the image
+     * @return the pixels, row by row from the top left. They must not be modified.
+     */
+    static int[] getArgbPixels(IChimpImage image) {
+        if (image instanceof ChimpImageBase) {
+            return ((ChimpImageBase) image).getArgbPixels();
+        }
+        return toArgbPixels(image.getBufferedImage());
+    }
+
+    private static int[] toArgbPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt
+                && image.getRaster().getParent() == null
+                && image.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride()
+                        == width) {
+            DataBufferInt buffer = (DataBufferInt) image.getRaster().getDataBuffer();
+            if (buffer.getNumBanks() == 1 && buffer.getOffset() == 0) {
+                return buffer.getData();
+            }
+        }
+        // One bulk conversion rather than a color model lookup per comparison.
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
     @Override
     public boolean sameAs(IChimpImage other, double percent) {
+        return sameAs(other, percent, (PixelRegion) null);
+    }
+
+    @Override
+    public boolean sameAs(IChimpImage other, double percent, List<ChimpRect> include,
+            List<ChimpRect> exclude) {
+        BufferedImage image = getBufferedImage();
+        return sameAs(other, percent,
+                PixelRegion.fromRects(image.getWidth(), image.getHeight(), include, exclude));
+    }
+
+    @Override
+    public boolean sameAs(IChimpImage other, double percent, BitSet mask) {
+        BufferedImage image = getBufferedImage();
+        return sameAs(other, percent,
+                PixelRegion.fromMask(image.getWidth(), image.getHeight(), mask));
+    }
+
+    private boolean sameAs(IChimpImage other, double percent, PixelRegion region) {
         BufferedImage otherImage = other.getBufferedImage();
         BufferedImage myImage = getBufferedImage();
 
@@ -145,24 +247,40 @@ public abstract class ChimpImageBase implements IChimpImage {
             return false;
         }
 
-        int[] otherPixel = new int[1];
-        int[] myPixel = new int[1];
-
         int width = myImage.getWidth();
         int height = myImage.getHeight();
 
-        int numDiffPixels = 0;
-        // Now, go through pixel-by-pixel and check that the images are the same;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                if (myImage.getRGB(x, y) != otherImage.getRGB(x, y)) {
-                    numDiffPixels++;
-                }
-            }
+        // Stop counting as soon as too many pixels differ.
+        long pixelCount = region == null ? (long) width * height : region.pixelCount;
+        long maxDifferent = PixelComparison.maxDifferentPixels(pixelCount, percent);
+        if (maxDifferent < 0) {
+            return false;
+        }
+        if (maxDifferent >= pixelCount) {
+            return true;
+        }
+        return PixelComparison.sameAs(getArgbPixels(), getArgbPixels(other), width, height,
+                region, maxDifferent);
+    }
+
+    @Override
+    public long getPerceptualHash() {
+        Long hash = perceptualHash;
+        if (hash == null) {
+            BufferedImage image = getBufferedImage();
+            hash = PerceptualHash.dHash(getArgbPixels(), image.getWidth(), image.getHeight());
+            perceptualHash = hash;
         }
-        double numberPixels = (height * width);
-        double diffPercent = numDiffPixels / numberPixels;
-        return percent <= 1.0 - diffPercent;
+        return hash;
+    }
+
+    @Override
+    public List<ChimpRect> locate(IChimpImage template, double threshold) {
+        BufferedImage image = getBufferedImage();
+        BufferedImage templateImage = template.getBufferedImage();
+        return TemplateMatcher.locate(getArgbPixels(), image.getWidth(), image.getHeight(),
+                getArgbPixels(template), templateImage.getWidth(), templateImage.getHeight(),
+                threshold);
     }
 
     // TODO: figure out the location of this class and is superclasses
@@ -177,6 +295,12 @@ public abstract class ChimpImageBase implements IChimpImage {
         public BufferedImage createBufferedImage() {
             return image;
         }
+
+        @Override
+        public BufferedImage getBufferedImage() {
+            // Nothing to decode, so nothing to cache.
+            return image;
+        }
     }
 
     public static IChimpImage loadImageFromFile(String path) throws IOException {
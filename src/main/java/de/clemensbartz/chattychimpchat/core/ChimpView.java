@@ -56,15 +56,16 @@ public class ChimpView implements IChimpView {
      */
     @Override
     public ChimpRect getLocation() throws IOException, NumberFormatException{
-        List<String> result = Lists.newArrayList(queryView("getlocation").split(" "));
-        if (result.size() == 4) {
-            int left = Integer.parseInt(result.get(0));
-            int top = Integer.parseInt(result.get(1));
-            int width = Integer.parseInt(result.get(2));
-            int height = Integer.parseInt(result.get(3));
-            return new ChimpRect(left, top, left+width, top+height);
-        }
-        return new ChimpRect();
+        return manager.queryView(viewType, ids, "getlocation", r -> {
+            if (r.getTokenCount() == 4) {
+                int left = r.parseTokenAsInt(0);
+                int top = r.parseTokenAsInt(1);
+                int width = r.parseTokenAsInt(2);
+                int height = r.parseTokenAsInt(3);
+                return new ChimpRect(left, top, left+width, top+height);
+            }
+            return new ChimpRect();
+        });
     }
 
     /**
@@ -185,12 +186,12 @@ public class ChimpView implements IChimpView {
      */
     @Override
     public AccessibilityIds getAccessibilityIds() throws IOException, NumberFormatException{
-        List<String> results = Lists.newArrayList(queryView("getaccessibilityids").split(" "));
-        if (results.size() == 2) {
-            return new AccessibilityIds(Integer.parseInt(results.get(0)),
-                    Long.parseLong(results.get(1)));
-        }
-        return new AccessibilityIds(0, 0);
+        return manager.queryView(viewType, ids, "getaccessibilityids", r -> {
+            if (r.getTokenCount() == 2) {
+                return new AccessibilityIds(r.parseTokenAsInt(0), r.parseTokenAsLong(1));
+            }
+            return new AccessibilityIds(0, 0);
+        });
     }
 
 }
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of decoded images shared by all ChimpImages, limited by the bytes their rasters take.
+ *
+ * The least recently used images are dropped first once the budget is exceeded, so memory use
+ * stays bounded while the images being worked with stay decoded. A dropped image is decoded
+ * again the next time it is needed.
+ *
+ * Only the decoded rasters are counted against the budget. The cache holds the images they were
+ * decoded from weakly, so it neither keeps their own data, such as a raw frame buffer, alive
+ * nor keeps a decoded raster once its image is no longer used elsewhere.
+ *
+ * This class is thread-safe.
+ */
+public final class DecodedImageCache {
+    private static final DecodedImageCache DEFAULT = new DecodedImageCache(
+            Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4));
+
+    // In order of access, the least recently used first.
+    private final LinkedHashMap<ImageKey, BufferedImage> images =
+            new LinkedHashMap<ImageKey, BufferedImage>(16, 0.75f, true);
+    // The keys of images that are no longer used, to be dropped.
+    private final ReferenceQueue<ChimpImageBase> collected = new ReferenceQueue<ChimpImageBase>();
+    private long maxBytes;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Holds an image weakly and compares it by identity.
+     */
+    private static final class ImageKey extends WeakReference<ChimpImageBase> {
+        private final int hash;
+
+        ImageKey(ChimpImageBase image, ReferenceQueue<ChimpImageBase> queue) {
+            super(image, queue);
+            hash = System.identityHashCode(image);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ImageKey)) {
+                return false;
+            }
+            ChimpImageBase image = get();
+            return image != null && image == ((ImageKey) obj).get();
+        }
+    }
+
+    /**
+     * @param maxBytes how many bytes the cached rasters may take in total
+     */
+    public DecodedImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache used by all images, which by default may take 256 MB or a quarter of
+     *         the heap, whichever is less
+     */
+    public static DecodedImageCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the decoded image of a ChimpImage, decoding it if it is not cached.
+     *
+     * @param image the image
+     * @return the decoded image
+     */
+    BufferedImage get(ChimpImageBase image) {
+        synchronized (this) {
+            expunge();
+            BufferedImage decoded = images.get(new ImageKey(image, null));
+            if (decoded != null) {
+                hits++;
+                return decoded;
+            }
+            misses++;
+        }
+        // Decode without holding the lock; at worst two threads decode the same image.
+        BufferedImage decoded = image.createBufferedImage();
+        if (decoded != null) {
+            put(image, decoded);
+        }
+        return decoded;
+    }
+
+    private synchronized void put(ChimpImageBase image, BufferedImage decoded) {
+        long size = sizeOf(decoded);
+        if (size > maxBytes) {
+            return;
+        }
+        expunge();
+        BufferedImage previous = images.put(new ImageKey(image, collected), decoded);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += size;
+        evict();
+    }
+
+    /**
+     * Drop the rasters of images that are no longer used.
+     */
+    private void expunge() {
+        Object key;
+        while ((key = collected.poll()) != null) {
+            BufferedImage decoded = images.remove(key);
+            if (decoded != null) {
+                bytes -= sizeOf(decoded);
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<ImageKey, BufferedImage>> entries =
+                images.entrySet().iterator();
+        while (bytes > maxBytes && entries.hasNext()) {
+            bytes -= sizeOf(entries.next().getValue());
+            entries.remove();
+            evictions++;
+        }
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * @return how many bytes the cached rasters may take in total
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Change the budget, dropping images right away if they exceed it.
+     *
+     * @param maxBytes how many bytes the cached rasters may take in total
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * @return how many bytes the cached rasters take
+     */
+    public synchronized long getBytes() {
+        expunge();
+        return bytes;
+    }
+
+    /**
+     * @return the number of cached images
+     */
+    public synchronized int size() {
+        expunge();
+        return images.size();
+    }
+
+    /**
+     * @return how many times a decoded image was found in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return how many times an image had to be decoded
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return how many images were dropped to stay within the budget
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Drop all images.
+     */
+    public synchronized void clear() {
+        images.clear();
+        while (collected.poll() != null) {
+            continue;
+        }
+        bytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        expunge();
+        return "DecodedImageCache[" + images.size() + " images, " + bytes + "/" + maxBytes
+                + " bytes, " + hits + " hits, " + misses + " misses, " + evictions
+                + " evictions]";
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single-finger gesture, precomputed as a timeline of touch points, see
+ * {@link IChimpDevice#perform(Gesture)}.
+ *
+ * The finger goes down at the first point, moves through the points in between and is lifted
+ * at the last one. Each point has the time it is due at, relative to the start of the gesture,
+ * so the device can inject them on schedule however long each event takes to send.
+ */
+public final class Gesture {
+    private final int[] xs;
+    private final int[] ys;
+    private final long[] timesNanos;
+
+    private Gesture(int points) {
+        xs = new int[points];
+        ys = new int[points];
+        timesNanos = new long[points];
+    }
+
+    /**
+     * A straight line at constant speed, like a drag.
+     *
+     * @param startx the x coordinate of the starting point
+     * @param starty the y coordinate of the starting point
+     * @param endx the x coordinate of the end point
+     * @param endy the y coordinate of the end point
+     * @param steps the number of moves between the points
+     * @param ms the duration in milliseconds
+     * @return the gesture
+     */
+    public static Gesture line(int startx, int starty, int endx, int endy, int steps, long ms) {
+        return cubicBezier(startx, starty, startx + (endx - startx) / 3.0,
+                starty + (endy - starty) / 3.0, startx + (endx - startx) * 2 / 3.0,
+                starty + (endy - starty) * 2 / 3.0, endx, endy, steps, ms);
+    }
+
+    /**
+     * A curve along a quadratic Bezier curve at constant time steps.
+     *
+     * @param startx the x coordinate of the starting point
+     * @param starty the y coordinate of the starting point
+     * @param controlx the x coordinate of the control point
+     * @param controly the y coordinate of the control point
+     * @param endx the x coordinate of the end point
+     * @param endy the y coordinate of the end point
+     * @param steps the number of moves between the points
+     * @param ms the duration in milliseconds
+     * @return the gesture
+     */
+    public static Gesture quadraticBezier(int startx, int starty, int controlx, int controly,
+            int endx, int endy, int steps, long ms) {
+        // A quadratic curve is the cubic curve with its control points 2/3 of the way to it.
+        return cubicBezier(startx, starty, startx + (controlx - startx) * 2 / 3.0,
+                starty + (controly - starty) * 2 / 3.0, endx + (controlx - endx) * 2 / 3.0,
+                endy + (controly - endy) * 2 / 3.0, endx, endy, steps, ms);
+    }
+
+    /**
+     * A curve along a cubic Bezier curve at constant time steps.
+     *
+     * @param startx the x coordinate of the starting point
+     * @param starty the y coordinate of the starting point
+     * @param control1x the x coordinate of the first control point
+     * @param control1y the y coordinate of the first control point
+     * @param control2x the x coordinate of the second control point
+     * @param control2y the y coordinate of the second control point
+     * @param endx the x coordinate of the end point
+     * @param endy the y coordinate of the end point
+     * @param steps the number of moves between the points
+     * @param ms the duration in milliseconds
+     * @return the gesture
+     */
+    public static Gesture cubicBezier(int startx, int starty, double control1x,
+            double control1y, double control2x, double control2y, int endx, int endy,
+            int steps, long ms) {
+        return curve(startx, starty, control1x, control1y, control2x, control2y, endx, endy,
+                steps, ms, false);
+    }
+
+    /**
+     * A fling: a straight swipe that speeds up and lifts the finger at full speed, so the
+     * view scrolls on after it. The finger leaves at twice the average speed.
+     *
+     * @param startx the x coordinate of the starting point
+     * @param starty the y coordinate of the starting point
+     * @param endx the x coordinate of the point the finger is lifted at
+     * @param endy the y coordinate of the point the finger is lifted at
+     * @param steps the number of moves between the points
+     * @param ms the duration in milliseconds
+     * @return the gesture
+     */
+    public static Gesture fling(int startx, int starty, int endx, int endy, int steps, long ms) {
+        return curve(startx, starty, startx + (endx - startx) / 3.0,
+                starty + (endy - starty) / 3.0, startx + (endx - startx) * 2 / 3.0,
+                starty + (endy - starty) * 2 / 3.0, endx, endy, steps, ms, true);
+    }
+
+    private static Gesture curve(int startx, int starty, double control1x, double control1y,
+            double control2x, double control2y, int endx, int endy, int steps, long ms,
+            boolean accelerate) {
+        if (steps < 1) {
+            throw new IllegalArgumentException("steps must be at least 1: " + steps);
+        }
+        if (ms < 0) {
+            throw new IllegalArgumentException("ms must not be negative: " + ms);
+        }
+        Gesture gesture = new Gesture(steps + 1);
+        long durationNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+        for (int i = 0; i <= steps; i++) {
+            double time = i / (double) steps;
+            double t = accelerate ? time * time : time;
+            double u = 1 - t;
+            double a = u * u * u;
+            double b = 3 * u * u * t;
+            double c = 3 * u * t * t;
+            double d = t * t * t;
+            gesture.xs[i] = (int) Math.round(a * startx + b * control1x + c * control2x
+                    + d * endx);
+            gesture.ys[i] = (int) Math.round(a * starty + b * control1y + c * control2y
+                    + d * endy);
+            gesture.timesNanos[i] = durationNanos * i / steps;
+        }
+        return gesture;
+    }
+
+    /**
+     * @return the number of points, including the first and the last
+     */
+    public int size() {
+        return xs.length;
+    }
+
+    /**
+     * @param point the index of the point
+     * @return its x coordinate
+     */
+    public int getX(int point) {
+        return xs[point];
+    }
+
+    /**
+     * @param point the index of the point
+     * @return its y coordinate
+     */
+    public int getY(int point) {
+        return ys[point];
+    }
+
+    /**
+     * @param point the index of the point
+     * @return when it is due, in nanoseconds since the start of the gesture
+     */
+    public long getTimeNanos(int point) {
+        return timesNanos[point];
+    }
+
+    /**
+     * @return the duration in milliseconds
+     */
+    public long getDurationMs() {
+        return TimeUnit.NANOSECONDS.toMillis(timesNanos[timesNanos.length - 1]);
+    }
+
+    @Override
+    public String toString() {
+        int last = xs.length - 1;
+        return "(" + xs[0] + "," + ys[0] + ") to (" + xs[last] + "," + ys[last] + ") in "
+                + getDurationMs() + "ms, " + xs.length + " points";
+    }
+}
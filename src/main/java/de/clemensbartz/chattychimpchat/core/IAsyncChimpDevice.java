@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking view of a ChimpDevice.
+ *
+ * Every method writes its command(s) right away and returns a future. The futures are
+ * completed by a single reader thread shared by all devices, so one thread can drive many
+ * devices. Errors communicating with the device complete the future exceptionally.
+ */
+public interface IAsyncChimpDevice {
+    /**
+     * Perform a touch of the given type at (x,y).
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param type the touch type
+     * @return the future success or not
+     */
+    CompletableFuture<Boolean> touch(int x, int y, TouchPressType type);
+
+    /**
+     * Perform a press of a given type using a given key.
+     *
+     * @param keyName the name of the key to use
+     * @param type the type of press to perform
+     * @return the future success or not
+     */
+    CompletableFuture<Boolean> press(String keyName, TouchPressType type);
+
+    /**
+     * Perform a press of a given type using a given key.
+     *
+     * @param key the key to press
+     * @param type the type of press to perform
+     * @return the future success or not
+     */
+    CompletableFuture<Boolean> press(PhysicalButton key, TouchPressType type);
+
+    /**
+     * Type a given string.
+     *
+     * @param string the string to type
+     * @return the future success or not
+     */
+    CompletableFuture<Boolean> type(String string);
+
+    /**
+     * Wake up the screen on the device.
+     *
+     * @return the future success or not
+     */
+    CompletableFuture<Boolean> wake();
+
+    /**
+     * Get device's property.
+     *
+     * @param key the property name
+     * @return the future property value
+     */
+    CompletableFuture<String> getProperty(String key);
+
+    /**
+     * List properties of the device that we can inspect
+     *
+     * @return the future list of property keys
+     */
+    CompletableFuture<Collection<String>> getPropertyList();
+
+    /**
+     * List the possible view ID strings from the current applications resource file
+     *
+     * @return the future list of view id strings
+     */
+    CompletableFuture<Collection<String>> getViewIdList();
+
+    /**
+     * Query the on-screen view with the given id.
+     *
+     * @param idType the type of ID to query the view by
+     * @param ids the view id of the view
+     * @param query the query
+     * @return the future response from the query
+     */
+    CompletableFuture<String> queryView(String idType, List<String> ids, String query);
+}
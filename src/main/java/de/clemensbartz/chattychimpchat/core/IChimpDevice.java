@@ -24,6 +24,7 @@ import com.android.ddmlib.TimeoutException;
 import de.clemensbartz.chattychimpchat.ChimpManager;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Map;
 
@@ -38,6 +39,13 @@ public interface IChimpDevice {
      */
     ChimpManager getManager();
 
+    /**
+     * Get a non-blocking view of this device that shares its monkey connection.
+     *
+     * @return the asynchronous device
+     */
+    IAsyncChimpDevice getAsyncDevice();
+
     /**
      * Dispose of any native resources this device may have taken hold of.
      */
@@ -49,6 +57,57 @@ public interface IChimpDevice {
      */
     IChimpImage takeSnapshot() throws TimeoutException, AdbCommandRejectedException, IOException;
 
+    /**
+     * Take a snapshot of a region of the screen. Where the device supports it, the region is cut
+     * out on the device, so only its rows are transferred.
+     *
+     * @param region the region; it is clipped to the screen. Its right and bottom edges are
+     *               exclusive.
+     * @return the snapshot of the region, of the size of the clipped region
+     */
+    IChimpImage takeSnapshot(ChimpRect region)
+            throws TimeoutException, AdbCommandRejectedException, IOException;
+
+    /**
+     * Start capturing the screen continuously, for example to follow an animation. This avoids
+     * allocating a new screenshot for every frame, see {@link ISnapshotStream}.
+     *
+     * @param fps how many frames to capture per second at most
+     * @return the stream of snapshots, to be closed when done
+     */
+    ISnapshotStream openSnapshotStream(double fps);
+
+    /**
+     * Wait until the screen stops changing, for example after an animation. Consecutive frames
+     * are compared by a hash per row, so nothing is decoded and changes are found row by row.
+     *
+     * @param timeoutMs how long to wait at most, in milliseconds
+     * @param quietPeriodMs how long the screen must stay unchanged, in milliseconds
+     * @param tolerance the fraction of rows that may change between frames without counting
+     *                  as a change, for example to ignore a clock or a blinking cursor
+     * @return whether the screen settled and how long it took
+     */
+    StableScreen waitForStableScreen(long timeoutMs, long quietPeriodMs, double tolerance)
+            throws IOException, InterruptedException;
+
+    /**
+     * Start recording the screen as an H.264 video, for example to see what went wrong in a
+     * failing test. The video is written to the stream as it arrives, and the input events sent
+     * until the recording stops are logged so they can be matched with its frames.
+     *
+     * @param out where to write the video. It is not closed.
+     * @throws IllegalStateException if the screen is already being recorded
+     */
+    void startRecording(OutputStream out) throws IOException;
+
+    /**
+     * Stop recording the screen.
+     *
+     * @return when each frame arrived and the input events sent while recording
+     * @throws IllegalStateException if the screen is not being recorded
+     */
+    ScreenRecording stopRecording() throws IOException;
+
     /**
      * Reboot the device.
      *
@@ -117,6 +176,15 @@ public interface IChimpDevice {
      */
     void drag(int startx, int starty, int endx, int endy, int steps, long ms);
 
+    /**
+     * Perform a gesture. Each point is sent when it is due rather than after a fixed pause,
+     * so the gesture takes as long as it was built to; when sending falls behind, moves that
+     * are already overdue are left out.
+     *
+     * @param gesture the gesture
+     */
+    void perform(Gesture gesture) throws IOException;
+
     /**
      * Type a given string.
      *
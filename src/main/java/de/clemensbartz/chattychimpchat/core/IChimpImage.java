@@ -17,6 +17,9 @@ package de.clemensbartz.chattychimpchat.core;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.BitSet;
+import java.util.List;
 
 /**
  * ChimpImage interface.
@@ -32,6 +35,72 @@ public interface IChimpImage {
 
     byte[] convertToBytes(String format) throws IOException;
     boolean writeToFile(String path, String format) throws IOException;
+
+    /**
+     * Write this image to a channel. PNG is encoded straight from the pixels with default
+     * settings; use a {@link PngEncoder} directly to tune compression.
+     *
+     * @param channel the channel to write to. It is not closed.
+     * @param format the image format, such as "png" or "jpg"
+     */
+    void writeToChannel(WritableByteChannel channel, String format) throws IOException;
     int getPixel(int x, int y);
+
+    /**
+     * Get the ARGB values of a rectangle of pixels, row by row from its top left. Unlike
+     * {@link #getSubImage(int, int, int, int)} this copies the pixels out.
+     *
+     * @param x the left edge of the rectangle
+     * @param y the top edge of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @return the w * h pixels
+     */
+    int[] getPixels(int x, int y, int w, int h);
     boolean sameAs(IChimpImage other, double percent);
+
+    /**
+     * Compare only part of this image with another image of the same size, without creating
+     * sub-images. The pixels compared are those inside any of the included rectangles and
+     * inside none of the excluded ones; right and bottom edges are exclusive.
+     *
+     * @param other the image to compare with
+     * @param percent the fraction of the compared pixels that must be the same
+     * @param include the rectangles to compare, or null or empty for the whole image
+     * @param exclude the rectangles to leave out, such as a clock, or null
+     * @return true if the images are the same in the region
+     */
+    boolean sameAs(IChimpImage other, double percent, List<ChimpRect> include,
+            List<ChimpRect> exclude);
+
+    /**
+     * Compare only the masked pixels of this image with another image of the same size.
+     *
+     * @param other the image to compare with
+     * @param percent the fraction of the compared pixels that must be the same
+     * @param mask the pixels to compare, where bit y * width + x stands for the pixel at (x, y)
+     * @return true if the images are the same in the masked pixels
+     */
+    boolean sameAs(IChimpImage other, double percent, BitSet mask);
+
+    /**
+     * Get a 64 bit perceptual hash of this image, see {@link PerceptualHash}. Images that look
+     * alike have hashes that differ in few bits, see {@link ImageHashIndex}.
+     *
+     * @return the hash
+     */
+    long getPerceptualHash();
+
+    /**
+     * Find where a smaller image, such as a button or an icon, appears in this image. Matching
+     * uses the normalized correlation of brightness, so it tolerates uniform changes in
+     * brightness and contrast, but not scaling or rotation.
+     *
+     * @param template the image to look for
+     * @param threshold the lowest correlation to count as a match, from -1 to 1. 1 only matches
+     *                  exact copies; around 0.9 tolerates some noise and anti-aliasing.
+     * @return the matches, best first and without overlapping more than half their area. The
+     *         right and bottom edges of the rectangles are exclusive.
+     */
+    List<ChimpRect> locate(IChimpImage template, double threshold);
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A continuous capture of the screen of a device.
+ *
+ * Frames are captured in the background into a small ring of buffers that are reused from
+ * frame to frame. A frame stays valid until the next call to {@link #take()} or
+ * {@link #poll(long, TimeUnit)}, after which its buffer is captured into again; copy what you
+ * need to keep, for example with {@link IChimpImage#getSubImage(int, int, int, int)}. When all
+ * buffers hold frames that have not been taken yet, capturing pauses until the consumer catches
+ * up, so a slow consumer lowers the frame rate rather than the memory use.
+ */
+public interface ISnapshotStream extends Closeable {
+    /**
+     * Wait for the next frame.
+     *
+     * @return the frame, or null if the stream has been closed
+     * @throws IOException if capturing failed
+     */
+    IChimpImage take() throws IOException, InterruptedException;
+
+    /**
+     * Wait a limited time for the next frame.
+     *
+     * @param timeout how long to wait
+     * @param unit the unit of timeout
+     * @return the frame, or null if there was none in time or the stream has been closed
+     * @throws IOException if capturing failed
+     */
+    IChimpImage poll(long timeout, TimeUnit unit) throws IOException, InterruptedException;
+
+    /**
+     * @return the number of frames captured so far
+     */
+    long getCapturedFrames();
+
+    /**
+     * @return how many times capturing had to wait for the consumer to free a buffer
+     */
+    long getStalls();
+
+    /**
+     * Stop capturing. Frames that have not been taken yet are dropped.
+     */
+    @Override
+    void close();
+}
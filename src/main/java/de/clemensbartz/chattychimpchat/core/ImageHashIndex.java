@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index of reference images by their perceptual hash, to recognize which known screen a
+ * snapshot shows.
+ *
+ * Only the 64 bit hashes are kept, in a flat array that is scanned with one XOR and bit count
+ * per entry, so matching against thousands of screens takes microseconds. Images are hashed
+ * once, when they are added.
+ *
+ * This class is thread-safe.
+ *
+ * @param <T> what to identify the screens by, such as their names
+ */
+public class ImageHashIndex<T> {
+    private long[] hashes = new long[64];
+    private Object[] values = new Object[64];
+    private int size = 0;
+
+    /**
+     * Add a reference image.
+     *
+     * @param image the image
+     * @param value what to return when a snapshot matches the image
+     */
+    public void add(IChimpImage image, T value) {
+        add(image.getPerceptualHash(), value);
+    }
+
+    /**
+     * Add a reference image by its hash.
+     *
+     * @param hash the perceptual hash of the image
+     * @param value what to return when a snapshot matches the image
+     */
+    public synchronized void add(long hash, T value) {
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        hashes[size] = hash;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * @return the number of reference images
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Find the reference image that is most like the given image.
+     *
+     * @param image the image to look up, typically a fresh snapshot
+     * @param maxDistance the largest number of differing hash bits to still count as a match
+     * @return the value of the closest match, or null if there is none within maxDistance
+     */
+    public T findNearest(IChimpImage image, int maxDistance) {
+        return findNearest(image.getPerceptualHash(), maxDistance);
+    }
+
+    /**
+     * Find the reference image whose hash is closest to the given hash.
+     *
+     * @param hash the perceptual hash to look up
+     * @param maxDistance the largest number of differing hash bits to still count as a match
+     * @return the value of the closest match, or null if there is none within maxDistance
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T findNearest(long hash, int maxDistance) {
+        int best = -1;
+        int bestDistance = Math.min(maxDistance, 64) + 1;
+        for (int i = 0; i < size && bestDistance > 0; i++) {
+            int distance = Long.bitCount(hashes[i] ^ hash);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best < 0 ? null : (T) values[best];
+    }
+
+    /**
+     * Find all reference images within the given distance of the given image.
+     *
+     * @param image the image to look up
+     * @param maxDistance the largest number of differing hash bits to still count as a match
+     * @return the values of the matches, closest first
+     */
+    public List<T> findAll(IChimpImage image, int maxDistance) {
+        return findAll(image.getPerceptualHash(), maxDistance);
+    }
+
+    /**
+     * Find all reference images whose hash is within the given distance of the given hash.
+     *
+     * @param hash the perceptual hash to look up
+     * @param maxDistance the largest number of differing hash bits to still count as a match
+     * @return the values of the matches, closest first
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<T> findAll(long hash, int maxDistance) {
+        maxDistance = Math.min(maxDistance, 64);
+        if (maxDistance < 0) {
+            return Lists.newArrayList();
+        }
+        // Counting sort by distance, which keeps the order of insertion among equals.
+        int[] distances = new int[size];
+        int[] countByDistance = new int[maxDistance + 2];
+        int matches = 0;
+        for (int i = 0; i < size; i++) {
+            distances[i] = Long.bitCount(hashes[i] ^ hash);
+            if (distances[i] <= maxDistance) {
+                countByDistance[distances[i] + 1]++;
+                matches++;
+            }
+        }
+        for (int d = 1; d < countByDistance.length; d++) {
+            countByDistance[d] += countByDistance[d - 1];
+        }
+        Object[] sorted = new Object[matches];
+        for (int i = 0; i < size; i++) {
+            if (distances[i] <= maxDistance) {
+                sorted[countByDistance[distances[i]]++] = values[i];
+            }
+        }
+        List<T> result = Lists.newArrayListWithCapacity(matches);
+        for (Object value : sorted) {
+            result.add((T) value);
+        }
+        return result;
+    }
+}
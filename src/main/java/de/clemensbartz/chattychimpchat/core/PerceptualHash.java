@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+/**
+ * 64 bit perceptual hashes of images (dHash). Similar looking images get hashes that differ in
+ * few bits, so the Hamming distance between two hashes tells how alike two screens are.
+ *
+ * The image is shrunk to 9x8 cells by averaging the brightness of all pixels in each cell, and
+ * each bit records whether a cell is darker than its right neighbour. The hash does not depend
+ * on the resolution of the image, and small changes such as a ticking clock flip few bits.
+ */
+public final class PerceptualHash {
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+
+    // Utility class
+    private PerceptualHash() { }
+
+    /**
+     * Compute the hash of an ARGB raster.
+     *
+     * @param pixels the pixels, row by row from the top left
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the hash; 0 for an empty image
+     */
+    public static long dHash(int[] pixels, int width, int height) {
+        if (width == 0 || height == 0) {
+            return 0;
+        }
+        int[] cellOfColumn = new int[width];
+        for (int x = 0; x < width; x++) {
+            cellOfColumn[x] = (int) ((long) x * COLUMNS / width);
+        }
+        long[] sums = new long[COLUMNS * ROWS];
+        long[] counts = new long[COLUMNS * ROWS];
+        for (int y = 0; y < height; y++) {
+            int cellRow = (int) ((long) y * ROWS / height) * COLUMNS;
+            int rowStart = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[rowStart + x];
+                // Integer approximation of the luma of the pixel.
+                int luma = (77 * ((pixel >> 16) & 0xFF) + 150 * ((pixel >> 8) & 0xFF)
+                        + 29 * (pixel & 0xFF)) >> 8;
+                int cell = cellRow + cellOfColumn[x];
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS - 1; column++) {
+                int cell = row * COLUMNS + column;
+                hash <<= 1;
+                // Compare the averages without dividing: a / b < c / d.
+                if (counts[cell] != 0 && counts[cell + 1] != 0
+                        && sums[cell] * counts[cell + 1] < sums[cell + 1] * counts[cell]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash the first hash
+     * @param other the second hash
+     * @return the number of bits in which the hashes differ, from 0 for alike to 64
+     */
+    public static int distance(long hash, long other) {
+        return Long.bitCount(hash ^ other);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Compares ARGB rasters, as returned by {@link ChimpImageBase#getArgbPixels()}.
+ *
+ * The comparison stops as soon as the images differ in more pixels than allowed, and large
+ * images are compared in parallel bands of rows.
+ */
+final class PixelComparison {
+    // Images with at least this many pixels are compared in parallel bands of rows.
+    private static final int PARALLEL_THRESHOLD_PIXELS = 512 * 1024;
+    private static final int MIN_BAND_ROWS = 64;
+
+    // Utility class
+    private PixelComparison() { }
+
+    /**
+     * Work out how many pixels may differ for two images to count as the same.
+     *
+     * @param pixelCount the number of pixels compared
+     * @param percent the fraction of pixels that must be the same, between 0 and 1
+     * @return the largest number of differing pixels d for which
+     *         {@code percent <= 1.0 - d / pixelCount}, or -1 if there is none
+     */
+    static long maxDifferentPixels(long pixelCount, double percent) {
+        if (pixelCount == 0) {
+            // The fraction of differing pixels is undefined, which never compares as enough.
+            return -1;
+        }
+        double count = pixelCount;
+        long max = (long) Math.floor((1.0 - percent) * count);
+        max = Math.max(-1, Math.min(pixelCount, max));
+        // Settle rounding the way the check itself is written.
+        while (max >= 0 && !(percent <= 1.0 - max / count)) {
+            max--;
+        }
+        while (max < pixelCount && percent <= 1.0 - (max + 1) / count) {
+            max++;
+        }
+        return max;
+    }
+
+    /**
+     * Check whether two rasters of the same size differ in at most the given number of pixels.
+     *
+     * @param mine the first raster, row by row
+     * @param other the second raster, row by row
+     * @param width the width of both rasters
+     * @param height the height of both rasters
+     * @param region the pixels to compare, or null for all of them
+     * @param maxDifferent how many pixels may differ
+     * @return true if no more than maxDifferent pixels differ
+     */
+    static boolean sameAs(final int[] mine, final int[] other, final int width, int height,
+            final PixelRegion region, final long maxDifferent) {
+        long pixelCount = region == null ? (long) width * height : region.pixelCount;
+        if (maxDifferent < 0) {
+            return false;
+        }
+        if (maxDifferent >= pixelCount) {
+            return true;
+        }
+        int firstRow = region == null ? 0 : region.firstRow;
+        int endRow = region == null ? height : region.endRow;
+        if (pixelCount < PARALLEL_THRESHOLD_PIXELS) {
+            return countDifferences(mine, other, width, region, firstRow, endRow, maxDifferent,
+                    null) <= maxDifferent;
+        }
+
+        final int rows = endRow - firstRow;
+        int bands = Math.min(Runtime.getRuntime().availableProcessors() * 2,
+                Math.max(1, rows / MIN_BAND_ROWS));
+        final int rowsPerBand = (rows + bands - 1) / bands;
+        final int bandStart = firstRow;
+        final int bandEnd = endRow;
+        final AtomicLong different = new AtomicLong();
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int first = bandStart + band * rowsPerBand;
+            countDifferences(mine, other, width, region, first,
+                    Math.min(bandEnd, first + rowsPerBand), maxDifferent, different);
+        });
+        return different.get() <= maxDifferent;
+    }
+
+    /**
+     * Count the differing pixels in rows [firstRow, endRow), stopping once more than
+     * maxDifferent have been found.
+     *
+     * @param region the pixels to compare, or null for whole rows
+     * @param shared the count of all bands, or null if this is the only one. It is updated
+     *               after every row, so that all bands stop once the total is too large.
+     * @return the number of differing pixels found by this band
+     */
+    private static long countDifferences(int[] mine, int[] other, int width, PixelRegion region,
+            int firstRow, int endRow, long maxDifferent, AtomicLong shared) {
+        long different = 0;
+        for (int row = firstRow; row < endRow; row++) {
+            int rowDifferent = 0;
+            int rowStart = row * width;
+            if (region == null) {
+                rowDifferent = countDifferences(mine, other, rowStart, rowStart + width);
+            } else {
+                int[] spans = region.spans;
+                int end = region.rowSpans[row - region.firstRow + 1];
+                for (int s = region.rowSpans[row - region.firstRow]; s < end; s += 2) {
+                    rowDifferent += countDifferences(mine, other, rowStart + spans[s],
+                            rowStart + spans[s + 1]);
+                }
+            }
+            different += rowDifferent;
+            if (shared != null) {
+                long total = rowDifferent == 0 ? shared.get() : shared.addAndGet(rowDifferent);
+                if (total > maxDifferent) {
+                    break;
+                }
+            } else if (different > maxDifferent) {
+                break;
+            }
+        }
+        return different;
+    }
+
+    private static int countDifferences(int[] mine, int[] other, int start, int end) {
+        int different = 0;
+        for (int i = start; i < end; i++) {
+            if (mine[i] != other[i]) {
+                different++;
+            }
+        }
+        return different;
+    }
+}
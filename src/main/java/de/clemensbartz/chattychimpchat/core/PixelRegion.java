@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The pixels of an image that take part in a comparison, as runs of pixels per row.
+ *
+ * Building a region costs in proportion to the rows it touches and the rectangles or runs
+ * involved, not to the size of the image.
+ */
+final class PixelRegion {
+    // The rows the region touches: [firstRow, endRow).
+    final int firstRow;
+    final int endRow;
+    // The runs of row firstRow + i are spans[rowSpans[i]] to spans[rowSpans[i + 1]], as pairs
+    // of start (inclusive) and end (exclusive) x coordinates.
+    final int[] rowSpans;
+    final int[] spans;
+    final long pixelCount;
+
+    private PixelRegion(int firstRow, int endRow, int[] rowSpans, int[] spans, long pixelCount) {
+        this.firstRow = firstRow;
+        this.endRow = endRow;
+        this.rowSpans = rowSpans;
+        this.spans = spans;
+        this.pixelCount = pixelCount;
+    }
+
+    /**
+     * Build the region covered by any of the included rectangles and none of the excluded
+     * ones. Rectangles are clipped to the image; their right and bottom edges are exclusive.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param include the rectangles to compare, or null or empty for the whole image
+     * @param exclude the rectangles to leave out, or null
+     * @return the region
+     */
+    static PixelRegion fromRects(int width, int height, List<ChimpRect> include,
+            List<ChimpRect> exclude) {
+        if (include == null || include.isEmpty()) {
+            include = Arrays.asList(new ChimpRect(0, 0, width, height));
+        }
+        int firstRow = height;
+        int endRow = 0;
+        for (ChimpRect rect : include) {
+            if (rect.left < rect.right && rect.top < rect.bottom) {
+                firstRow = Math.min(firstRow, Math.max(0, rect.top));
+                endRow = Math.max(endRow, Math.min(height, rect.bottom));
+            }
+        }
+        if (firstRow >= endRow) {
+            return new PixelRegion(0, 0, new int[1], new int[0], 0);
+        }
+
+        Builder builder = new Builder(firstRow, endRow);
+        int[] included = new int[include.size() * 2];
+        int[] excluded = new int[exclude == null ? 0 : exclude.size() * 2];
+        for (int row = firstRow; row < endRow; row++) {
+            int includedCount = intervalsOnRow(include, row, width, included);
+            int excludedCount = exclude == null ? 0 : intervalsOnRow(exclude, row, width, excluded);
+            // Walk the included intervals and cut out the excluded ones.
+            int e = 0;
+            for (int i = 0; i < includedCount; i += 2) {
+                int start = included[i];
+                int end = included[i + 1];
+                while (start < end) {
+                    while (e < excludedCount && excluded[e + 1] <= start) {
+                        e += 2;
+                    }
+                    if (e >= excludedCount || excluded[e] >= end) {
+                        builder.add(start, end);
+                        break;
+                    }
+                    if (excluded[e] > start) {
+                        builder.add(start, excluded[e]);
+                    }
+                    start = excluded[e + 1];
+                }
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collect the parts of the given rectangles on a row as sorted, non-overlapping intervals.
+     *
+     * @return the number of ints written to intervals (two per interval)
+     */
+    private static int intervalsOnRow(List<ChimpRect> rects, int row, int width,
+            int[] intervals) {
+        int count = 0;
+        for (ChimpRect rect : rects) {
+            int start = Math.max(0, rect.left);
+            int end = Math.min(width, rect.right);
+            if (rect.top <= row && row < rect.bottom && start < end) {
+                // Insertion sort by start; there are only ever a few rectangles.
+                int i = count;
+                while (i > 0 && intervals[i - 2] > start) {
+                    intervals[i] = intervals[i - 2];
+                    intervals[i + 1] = intervals[i - 1];
+                    i -= 2;
+                }
+                intervals[i] = start;
+                intervals[i + 1] = end;
+                count += 2;
+            }
+        }
+        // Merge overlapping and touching intervals.
+        int merged = 0;
+        for (int i = 0; i < count; i += 2) {
+            if (merged > 0 && intervals[i] <= intervals[merged - 1]) {
+                intervals[merged - 1] = Math.max(intervals[merged - 1], intervals[i + 1]);
+            } else {
+                intervals[merged] = intervals[i];
+                intervals[merged + 1] = intervals[i + 1];
+                merged += 2;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Build the region of the set bits of a mask, where bit y * width + x stands for the
+     * pixel at (x, y).
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param mask the mask
+     * @return the region
+     */
+    static PixelRegion fromMask(int width, int height, BitSet mask) {
+        long size = (long) width * height;
+        int first = mask.nextSetBit(0);
+        if (first < 0 || first >= size) {
+            return new PixelRegion(0, 0, new int[1], new int[0], 0);
+        }
+        int last = Math.min(mask.length(), (int) size) - 1;
+        Builder builder = new Builder(first / width, last / width + 1);
+        for (int row = first / width; row <= last / width; row++) {
+            int rowStart = row * width;
+            int rowEnd = rowStart + width;
+            int start = mask.nextSetBit(rowStart);
+            while (start >= 0 && start < rowEnd) {
+                int end = Math.min(rowEnd, mask.nextClearBit(start));
+                builder.add(start - rowStart, end - rowStart);
+                start = end < rowEnd ? mask.nextSetBit(end) : -1;
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects the spans of a region row by row.
+     */
+    private static final class Builder {
+        private final int firstRow;
+        private final int endRow;
+        private final int[] rowSpans;
+        private int[] spans = new int[64];
+        private int spanCount = 0;
+        private int rows = 0;
+        private long pixelCount = 0;
+
+        Builder(int firstRow, int endRow) {
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+            this.rowSpans = new int[endRow - firstRow + 1];
+        }
+
+        void add(int start, int end) {
+            if (spanCount + 2 > spans.length) {
+                spans = Arrays.copyOf(spans, spans.length * 2);
+            }
+            spans[spanCount++] = start;
+            spans[spanCount++] = end;
+            pixelCount += end - start;
+        }
+
+        void endRow() {
+            rowSpans[++rows] = spanCount;
+        }
+
+        PixelRegion build() {
+            return new PixelRegion(firstRow, endRow, rowSpans, spans, pixelCount);
+        }
+    }
+}
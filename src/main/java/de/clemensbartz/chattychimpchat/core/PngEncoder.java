@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes ARGB rasters as PNG straight into a channel.
+ *
+ * Rows are filtered and compressed one at a time, so apart from the compressed chunk being
+ * written no copy of the image is made. Images without transparency are written as RGB.
+ *
+ * With parallel compression, bands of rows are compressed on all processors at once, each
+ * primed with the end of the band before it, and joined into one zlib stream. This compresses
+ * almost as well as a single stream, but keeps a few compressed bands in memory.
+ */
+public class PngEncoder {
+    private static final byte[] SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    // Compressed data is written in IDAT chunks of up to this size.
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // With parallel compression, the smallest number of filtered bytes per band.
+    private static final int MIN_BAND_BYTES = 256 * 1024;
+    // The size of the deflate window, which is how much of the previous band primes a band.
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * The filters PNG applies to each row before compression.
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH,
+        /** Pick the filter per row that gives the smallest sum of absolute differences. */
+        ADAPTIVE
+    }
+
+    private int compressionLevel = 6;
+    private Filter filter = Filter.UP;
+    private boolean parallel = false;
+
+    /**
+     * @return the deflate compression level, from 0 for none to 9 for best
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel the deflate compression level, from 0 for none to 9 for best.
+     *                         Lower levels are much faster on large screenshots.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be from 0 to 9: "
+                    + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return the filter applied to the rows
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @param filter the filter to apply to the rows
+     */
+    public void setFilter(Filter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("filter must not be null");
+        }
+        this.filter = filter;
+    }
+
+    /**
+     * @return true if bands of rows are compressed in parallel
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param parallel whether to compress bands of rows in parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Encode an image.
+     *
+     * @param image the image
+     * @param channel where to write the PNG. It is not closed.
+     */
+    public void encode(IChimpImage image, WritableByteChannel channel) throws IOException {
+        int width = image.getBufferedImage().getWidth();
+        int height = image.getBufferedImage().getHeight();
+        encode(ChimpImageBase.getArgbPixels(image), width, height, channel);
+    }
+
+    /**
+     * Encode an ARGB raster.
+     *
+     * @param pixels the pixels, row by row from the top left
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param channel where to write the PNG. It is not closed.
+     */
+    public void encode(int[] pixels, int width, int height, WritableByteChannel channel)
+            throws IOException {
+        boolean opaque = true;
+        for (int i = 0; i < width * height && opaque; i++) {
+            opaque = pixels[i] >>> 24 == 0xFF;
+        }
+        Rows rows = new Rows(pixels, width, opaque ? 3 : 4, filter);
+
+        writeFully(channel, ByteBuffer.wrap(SIGNATURE));
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height);
+        // 8 bits per sample, RGB or RGBA, deflate, adaptive filtering, no interlace.
+        header.put((byte) 8).put((byte) (opaque ? 2 : 6)).put((byte) 0).put((byte) 0)
+                .put((byte) 0);
+        writeChunk(channel, "IHDR", header.array(), 0, 13);
+
+        ChunkWriter idat = new ChunkWriter(channel);
+        long rowsBytes = (long) height * (rows.rowBytes + 1);
+        if (parallel && height > 1 && rowsBytes >= 2L * MIN_BAND_BYTES) {
+            encodeParallel(rows, height, idat);
+        } else {
+            encodeSerial(rows, height, idat);
+        }
+        idat.flush();
+
+        writeChunk(channel, "IEND", new byte[0], 0, 0);
+    }
+
+    private void encodeSerial(Rows rows, int height, ChunkWriter idat) throws IOException {
+        Deflater deflater = newDeflater(false);
+        try {
+            byte[] filtered = new byte[rows.rowBytes + 1];
+            byte[] output = new byte[CHUNK_SIZE];
+            for (int y = 0; y < height; y++) {
+                rows.filter(y, filtered);
+                deflater.setInput(filtered);
+                while (!deflater.needsInput()) {
+                    idat.write(output, 0, deflater.deflate(output));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                idat.write(output, 0, deflater.deflate(output));
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compress bands of rows in parallel, a few at a time, as raw deflate streams that together
+     * form one zlib stream.
+     */
+    private void encodeParallel(final Rows rows, final int height, ChunkWriter idat)
+            throws IOException {
+        final int rowsPerBand = Math.max(1, MIN_BAND_BYTES / (rows.rowBytes + 1));
+        final int bands = (height + rowsPerBand - 1) / rowsPerBand;
+        int wave = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+        // zlib header: deflate with a 32K window, no dictionary.
+        idat.write(new byte[] { 0x78, (byte) 0x9C }, 0, 2);
+        long adler = 1;
+        for (int first = 0; first < bands; first += wave) {
+            final int firstBand = first;
+            final Band[] compressed = new Band[Math.min(wave, bands - first)];
+            IntStream.range(0, compressed.length).parallel().forEach(i -> {
+                int band = firstBand + i;
+                compressed[i] = compressBand(rows, band * rowsPerBand,
+                        Math.min(height, (band + 1) * rowsPerBand), band == bands - 1);
+            });
+            for (Band band : compressed) {
+                idat.write(band.data, 0, band.length);
+                adler = combineAdler32(adler, band.adler, band.inputLength);
+            }
+        }
+        idat.write(new byte[] {
+                (byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8),
+                (byte) adler }, 0, 4);
+    }
+
+    /**
+     * A band of rows compressed as raw deflate data.
+     */
+    private static final class Band {
+        byte[] data;
+        int length;
+        long adler;
+        long inputLength;
+    }
+
+    private Band compressBand(Rows rows, int firstRow, int endRow, boolean last) {
+        int filteredBytes = rows.rowBytes + 1;
+        Band band = new Band();
+        Deflater deflater = newDeflater(true);
+        try {
+            // Prime the compressor with the end of the previous band, as if it were one stream.
+            if (firstRow > 0) {
+                int dictionaryRows = Math.min(firstRow,
+                        (DICTIONARY_SIZE + filteredBytes - 1) / filteredBytes);
+                byte[] dictionary = new byte[dictionaryRows * filteredBytes];
+                byte[] row = new byte[filteredBytes];
+                for (int i = 0; i < dictionaryRows; i++) {
+                    rows.filter(firstRow - dictionaryRows + i, row);
+                    System.arraycopy(row, 0, dictionary, i * filteredBytes, filteredBytes);
+                }
+                int length = Math.min(DICTIONARY_SIZE, dictionary.length);
+                deflater.setDictionary(dictionary, dictionary.length - length, length);
+            }
+
+            Adler32 adler = new Adler32();
+            byte[] filtered = new byte[filteredBytes];
+            byte[] output = new byte[filteredBytes * (endRow - firstRow) / 2 + 1024];
+            int length = 0;
+            for (int y = firstRow; y < endRow; y++) {
+                rows.filter(y, filtered);
+                adler.update(filtered);
+                deflater.setInput(filtered);
+                while (!deflater.needsInput()) {
+                    if (length == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    length += deflater.deflate(output, length, output.length - length);
+                }
+            }
+            // Finish the last band; end the others on a byte boundary without a final block.
+            if (last) {
+                deflater.finish();
+            }
+            while (true) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                int written = last
+                        ? deflater.deflate(output, length, output.length - length)
+                        : deflater.deflate(output, length, output.length - length,
+                                Deflater.SYNC_FLUSH);
+                length += written;
+                if (last ? deflater.finished() : length < output.length) {
+                    break;
+                }
+            }
+            band.data = output;
+            band.length = length;
+            band.adler = adler.getValue();
+            band.inputLength = (long) filteredBytes * (endRow - firstRow);
+            return band;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private Deflater newDeflater(boolean raw) {
+        Deflater deflater = new Deflater(compressionLevel, raw);
+        if (filter != Filter.NONE) {
+            deflater.setStrategy(Deflater.FILTERED);
+        }
+        return deflater;
+    }
+
+    /**
+     * The Adler-32 checksum of two pieces of data, from the checksums of each, as zlib's
+     * adler32_combine.
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - remainder;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Turns rows of the raster into filtered PNG scanlines.
+     */
+    private static final class Rows {
+        final int[] pixels;
+        final int width;
+        final int bytesPerPixel;
+        final int rowBytes;
+        final Filter filter;
+        // Scratch buffers of each thread: the current and the previous row, and a candidate.
+        private final ThreadLocal<byte[][]> buffers;
+
+        Rows(int[] pixels, int width, int bytesPerPixel, Filter filter) {
+            this.pixels = pixels;
+            this.width = width;
+            this.bytesPerPixel = bytesPerPixel;
+            this.rowBytes = width * bytesPerPixel;
+            this.filter = filter;
+            final int size = rowBytes + 1;
+            this.buffers = ThreadLocal.withInitial(() -> new byte[][] {
+                    new byte[rowBytes], new byte[rowBytes], new byte[size] });
+        }
+
+        /**
+         * Write the filter type and the filtered bytes of row y into out.
+         */
+        void filter(int y, byte[] out) {
+            byte[][] scratch = buffers.get();
+            byte[] current = scratch[0];
+            byte[] previous = scratch[1];
+            unpack(y, current);
+            if (y > 0 && filter != Filter.NONE && filter != Filter.SUB) {
+                unpack(y - 1, previous);
+            } else {
+                Arrays.fill(previous, (byte) 0);
+            }
+            if (filter != Filter.ADAPTIVE) {
+                apply(filter.ordinal(), current, previous, out);
+                return;
+            }
+            byte[] candidate = scratch[2];
+            long best = Long.MAX_VALUE;
+            for (int type = 0; type < Filter.ADAPTIVE.ordinal(); type++) {
+                apply(type, current, previous, candidate);
+                long cost = 0;
+                for (int i = 1; i < candidate.length && cost < best; i++) {
+                    cost += Math.abs((int) candidate[i]);
+                }
+                if (cost < best) {
+                    best = cost;
+                    System.arraycopy(candidate, 0, out, 0, candidate.length);
+                }
+            }
+        }
+
+        private void unpack(int y, byte[] row) {
+            int offset = y * width;
+            int i = 0;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[offset + x];
+                row[i++] = (byte) (pixel >> 16);
+                row[i++] = (byte) (pixel >> 8);
+                row[i++] = (byte) pixel;
+                if (bytesPerPixel == 4) {
+                    row[i++] = (byte) (pixel >>> 24);
+                }
+            }
+        }
+
+        private void apply(int type, byte[] current, byte[] previous, byte[] out) {
+            int bpp = bytesPerPixel;
+            out[0] = (byte) type;
+            switch (type) {
+                case 0:
+                    System.arraycopy(current, 0, out, 1, rowBytes);
+                    break;
+                case 1:
+                    for (int i = 0; i < rowBytes; i++) {
+                        int left = i >= bpp ? current[i - bpp] : 0;
+                        out[i + 1] = (byte) (current[i] - left);
+                    }
+                    break;
+                case 2:
+                    for (int i = 0; i < rowBytes; i++) {
+                        out[i + 1] = (byte) (current[i] - previous[i]);
+                    }
+                    break;
+                case 3:
+                    for (int i = 0; i < rowBytes; i++) {
+                        int left = i >= bpp ? current[i - bpp] & 0xFF : 0;
+                        out[i + 1] = (byte) (current[i] - ((left + (previous[i] & 0xFF)) >> 1));
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < rowBytes; i++) {
+                        int left = i >= bpp ? current[i - bpp] & 0xFF : 0;
+                        int up = previous[i] & 0xFF;
+                        int upLeft = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+                        out[i + 1] = (byte) (current[i] - paeth(left, up, upLeft));
+                    }
+                    break;
+            }
+        }
+
+        private static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc) {
+                return a;
+            }
+            return pb <= pc ? b : c;
+        }
+    }
+
+    /**
+     * Collects compressed data into IDAT chunks.
+     */
+    private static final class ChunkWriter {
+        private final WritableByteChannel channel;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int length = 0;
+
+        ChunkWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(byte[] data, int offset, int count) throws IOException {
+            while (count > 0) {
+                int n = Math.min(count, buffer.length - length);
+                System.arraycopy(data, offset, buffer, length, n);
+                length += n;
+                offset += n;
+                count -= n;
+                if (length == buffer.length) {
+                    flush();
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            if (length > 0) {
+                writeChunk(channel, "IDAT", buffer, 0, length);
+                length = 0;
+            }
+        }
+    }
+
+    private static void writeChunk(WritableByteChannel channel, String type, byte[] data,
+            int offset, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(length).put(typeBytes).flip();
+        writeFully(channel, header);
+        writeFully(channel, ByteBuffer.wrap(data, offset, length));
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        trailer.putInt((int) crc.getValue()).flip();
+        writeFully(channel, trailer);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A finished screen recording, see {@link IChimpDevice#startRecording(java.io.OutputStream)}.
+ *
+ * The video itself went to the stream the recording was started with. This holds when each of
+ * its frames arrived and the input events sent meanwhile, both in milliseconds since the
+ * recording started, so an event can be matched with the frames that show its effect.
+ */
+public class ScreenRecording {
+    private final long durationMs;
+    private final long bytes;
+    private final long[] frameTimesMs;
+    private final List<InputEvent> inputEvents;
+
+    /**
+     * An input event sent to the device while recording.
+     */
+    public static class InputEvent {
+        private final long timeMs;
+        private final String description;
+
+        /**
+         * @param timeMs when the event was sent, in milliseconds since the recording started
+         * @param description what the event was, such as "touch 100,200 DOWN"
+         */
+        public InputEvent(long timeMs, String description) {
+            this.timeMs = timeMs;
+            this.description = description;
+        }
+
+        /**
+         * @return when the event was sent, in milliseconds since the recording started
+         */
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+        /**
+         * @return what the event was
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public String toString() {
+            return timeMs + "ms " + description;
+        }
+    }
+
+    /**
+     * @param durationMs how long the recording ran, in milliseconds
+     * @param bytes the length of the video
+     * @param frameTimesMs when each frame arrived, in milliseconds since the recording started
+     * @param inputEvents the input events sent while recording, in order
+     */
+    public ScreenRecording(long durationMs, long bytes, long[] frameTimesMs,
+            List<InputEvent> inputEvents) {
+        this.durationMs = durationMs;
+        this.bytes = bytes;
+        this.frameTimesMs = frameTimesMs;
+        this.inputEvents = Collections.unmodifiableList(inputEvents);
+    }
+
+    /**
+     * @return how long the recording ran, in milliseconds
+     */
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * @return the length of the video in bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of frames in the video
+     */
+    public int getFrameCount() {
+        return frameTimesMs.length;
+    }
+
+    /**
+     * Get when a frame arrived. The device only sends a frame when the screen changes, and
+     * encoding and transfer delay it by a few milliseconds.
+     *
+     * @param frame the index of the frame
+     * @return when it arrived, in milliseconds since the recording started
+     */
+    public long getFrameTimeMs(int frame) {
+        return frameTimesMs[frame];
+    }
+
+    /**
+     * Find the frame that was on screen at a time.
+     *
+     * @param timeMs the time, in milliseconds since the recording started
+     * @return the index of the last frame that arrived at or before the time, or -1 if none had
+     */
+    public int getFrameAt(long timeMs) {
+        int index = Arrays.binarySearch(frameTimesMs, timeMs);
+        if (index < 0) {
+            return -index - 2;
+        }
+        // Several frames may have arrived in the same millisecond; take the last.
+        while (index + 1 < frameTimesMs.length && frameTimesMs[index + 1] == timeMs) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return the input events sent while recording, in order
+     */
+    public List<InputEvent> getInputEvents() {
+        return inputEvents;
+    }
+
+    @Override
+    public String toString() {
+        return durationMs + "ms, " + frameTimesMs.length + " frames, " + bytes + " bytes, "
+                + inputEvents.size() + " input events";
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+/**
+ * The outcome of waiting for the screen to stop changing, see
+ * {@link IChimpDevice#waitForStableScreen(long, long, double)}.
+ */
+public class StableScreen {
+    private final boolean stable;
+    private final long elapsedMs;
+    private final int frames;
+
+    /**
+     * @param stable whether the screen settled before the timeout
+     * @param elapsedMs how long the wait took, in milliseconds
+     * @param frames how many frames were captured
+     */
+    public StableScreen(boolean stable, long elapsedMs, int frames) {
+        this.stable = stable;
+        this.elapsedMs = elapsedMs;
+        this.frames = frames;
+    }
+
+    /**
+     * @return true if the screen settled, false if the wait timed out
+     */
+    public boolean isStable() {
+        return stable;
+    }
+
+    /**
+     * @return how long the wait took, in milliseconds
+     */
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    /**
+     * @return how many frames were captured while waiting
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    @Override
+    public String toString() {
+        return (stable ? "stable after " : "not stable after ") + elapsedMs + "ms, " + frames
+                + " frames";
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Finds where a template appears in an image by normalized cross-correlation of brightness.
+ *
+ * Both images are reduced to pyramids of halved resolution. The template is correlated with
+ * every position of the image only at the coarsest level, where the window sums of the image
+ * come from integral images in constant time. The best candidates are then refined level by
+ * level in a small neighbourhood, and only confirmed at full resolution.
+ */
+final class TemplateMatcher {
+    // The template is shrunk no further than this many pixels on its shorter side.
+    private static final int MIN_TEMPLATE_SIZE = 8;
+    private static final int MAX_LEVELS = 4;
+    // How much lower than the threshold a coarse score may be to always be refined.
+    private static final double COARSE_SLACK = 0.15;
+    // How many of the best coarse positions are refined in any case.
+    private static final int MAX_CANDIDATES = 64;
+    // How far around the doubled coarse position to search on the next finer level.
+    private static final int REFINE_RADIUS = 2;
+
+    // Utility class
+    private TemplateMatcher() { }
+
+    /**
+     * One level of a pyramid: brightness values and, for the searched level of the image, their
+     * integral images.
+     */
+    private static final class Level {
+        final int width;
+        final int height;
+        final int[] luma;
+        // Sums of luma and luma squared over [0, x) x [0, y), at y * (width + 1) + x, or null.
+        long[] sum;
+        long[] sumSquares;
+
+        Level(int width, int height, int[] luma) {
+            this.width = width;
+            this.height = height;
+            this.luma = luma;
+        }
+
+        static Level fromArgb(int[] pixels, int width, int height) {
+            int[] luma = new int[width * height];
+            for (int i = 0; i < luma.length; i++) {
+                int pixel = pixels[i];
+                luma[i] = (77 * ((pixel >> 16) & 0xFF) + 150 * ((pixel >> 8) & 0xFF)
+                        + 29 * (pixel & 0xFF)) >> 8;
+            }
+            return new Level(width, height, luma);
+        }
+
+        Level halve() {
+            int w = width / 2;
+            int h = height / 2;
+            int[] half = new int[w * h];
+            for (int y = 0; y < h; y++) {
+                int top = 2 * y * width;
+                int bottom = top + width;
+                for (int x = 0; x < w; x++) {
+                    half[y * w + x] = (luma[top + 2 * x] + luma[top + 2 * x + 1]
+                            + luma[bottom + 2 * x] + luma[bottom + 2 * x + 1] + 2) >> 2;
+                }
+            }
+            return new Level(w, h, half);
+        }
+
+        void computeIntegrals() {
+            int stride = width + 1;
+            sum = new long[stride * (height + 1)];
+            sumSquares = new long[stride * (height + 1)];
+            for (int y = 0; y < height; y++) {
+                long rowSum = 0;
+                long rowSumSquares = 0;
+                for (int x = 0; x < width; x++) {
+                    int value = luma[y * width + x];
+                    rowSum += value;
+                    rowSumSquares += (long) value * value;
+                    sum[(y + 1) * stride + x + 1] = sum[y * stride + x + 1] + rowSum;
+                    sumSquares[(y + 1) * stride + x + 1] =
+                            sumSquares[y * stride + x + 1] + rowSumSquares;
+                }
+            }
+        }
+
+        long windowSum(long[] integral, int x, int y, int w, int h) {
+            int stride = width + 1;
+            return integral[(y + h) * stride + x + w] - integral[y * stride + x + w]
+                    - integral[(y + h) * stride + x] + integral[y * stride + x];
+        }
+    }
+
+    /**
+     * The template at one level, with its statistics precomputed.
+     */
+    private static final class TemplateLevel {
+        final Level level;
+        final double sum;
+        final double deviation;
+
+        TemplateLevel(Level level) {
+            this.level = level;
+            long s = 0;
+            long squares = 0;
+            for (int value : level.luma) {
+                s += value;
+                squares += (long) value * value;
+            }
+            this.sum = s;
+            this.deviation = Math.sqrt(Math.max(0, squares - (double) s * s / level.luma.length));
+        }
+    }
+
+    private static final class Match {
+        final int x;
+        final int y;
+        final double score;
+
+        Match(int x, int y, double score) {
+            this.x = x;
+            this.y = y;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Find the places where the template matches the image.
+     *
+     * @param image the ARGB pixels of the image, row by row
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param template the ARGB pixels of the template, row by row
+     * @param templateWidth the width of the template
+     * @param templateHeight the height of the template
+     * @param threshold the lowest correlation that counts as a match, up to 1 for identical
+     * @return the non-overlapping matches, best first
+     */
+    static List<ChimpRect> locate(int[] image, int width, int height, int[] template,
+            int templateWidth, int templateHeight, double threshold) {
+        List<ChimpRect> result = Lists.newArrayList();
+        if (templateWidth == 0 || templateHeight == 0
+                || templateWidth > width || templateHeight > height) {
+            return result;
+        }
+
+        int levels = 1;
+        while (levels < MAX_LEVELS
+                && Math.min(templateWidth, templateHeight) >> levels >= MIN_TEMPLATE_SIZE) {
+            levels++;
+        }
+        Level[] imageLevels = new Level[levels];
+        TemplateLevel[] templateLevels = new TemplateLevel[levels];
+        imageLevels[0] = Level.fromArgb(image, width, height);
+        Level templateLevel = Level.fromArgb(template, templateWidth, templateHeight);
+        templateLevels[0] = new TemplateLevel(templateLevel);
+        for (int i = 1; i < levels; i++) {
+            imageLevels[i] = imageLevels[i - 1].halve();
+            templateLevel = templateLevel.halve();
+            templateLevels[i] = new TemplateLevel(templateLevel);
+        }
+        // Only the exhaustive search needs the integral images; refinement visits few windows.
+        imageLevels[levels - 1].computeIntegrals();
+
+        List<Match> candidates = searchCoarsest(imageLevels[levels - 1],
+                templateLevels[levels - 1], levels == 1 ? threshold : threshold - COARSE_SLACK);
+
+        List<Match> matches = Lists.newArrayList();
+        for (Match candidate : candidates) {
+            Match match = candidate;
+            for (int i = levels - 2; i >= 0; i--) {
+                match = refine(imageLevels[i], templateLevels[i], match.x * 2, match.y * 2);
+            }
+            // Allow for rounding, so that exact copies match a threshold of 1.
+            if (match.score >= threshold - 1e-9) {
+                matches.add(match);
+            }
+        }
+        sortByScore(matches);
+
+        // Keep only the best of overlapping matches.
+        List<Match> kept = Lists.newArrayList();
+        for (Match match : matches) {
+            boolean overlaps = false;
+            for (Match other : kept) {
+                int overlapWidth = templateWidth - Math.abs(match.x - other.x);
+                int overlapHeight = templateHeight - Math.abs(match.y - other.y);
+                if (overlapWidth > 0 && overlapHeight > 0 && 2L * overlapWidth * overlapHeight
+                        > (long) templateWidth * templateHeight) {
+                    overlaps = true;
+                    break;
+                }
+            }
+            if (!overlaps) {
+                kept.add(match);
+                result.add(new ChimpRect(match.x, match.y, match.x + templateWidth,
+                        match.y + templateHeight));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Correlate the template with every position of the image and return the local maxima that
+     * reach the threshold, and at least the best few others, best first.
+     */
+    private static List<Match> searchCoarsest(final Level image, final TemplateLevel template,
+            double threshold) {
+        final int positionsX = image.width - template.level.width + 1;
+        final int positionsY = image.height - template.level.height + 1;
+        final double[] scores = new double[positionsX * positionsY];
+        IntStream.range(0, positionsY).parallel().forEach(y -> {
+            for (int x = 0; x < positionsX; x++) {
+                scores[y * positionsX + x] = score(image, template, x, y);
+            }
+        });
+
+        List<Match> candidates = Lists.newArrayList();
+        for (int y = 0; y < positionsY; y++) {
+            for (int x = 0; x < positionsX; x++) {
+                double score = scores[y * positionsX + x];
+                if (score > 0 && isLocalMaximum(scores, positionsX, positionsY, x, y)) {
+                    candidates.add(new Match(x, y, score));
+                }
+            }
+        }
+        sortByScore(candidates);
+        // Fine detail averages out differently depending on how a match lines up with the
+        // coarse pixels, so the best few are refined even if they fall short of the threshold.
+        int count = Math.min(candidates.size(), MAX_CANDIDATES);
+        while (count < candidates.size() && candidates.get(count).score >= threshold) {
+            count++;
+        }
+        return candidates.subList(0, count);
+    }
+
+    private static boolean isLocalMaximum(double[] scores, int width, int height, int x, int y) {
+        double score = scores[y * width + x];
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                double neighbour = scores[ny * width + nx];
+                // Break ties in favour of the first position, so plateaus yield one maximum.
+                if (neighbour > score || (neighbour == score && ny * width + nx < y * width + x)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the best position within the refinement radius around the given position.
+     */
+    private static Match refine(Level image, TemplateLevel template, int centerX, int centerY) {
+        int maxX = image.width - template.level.width;
+        int maxY = image.height - template.level.height;
+        Match best = null;
+        for (int y = Math.max(0, centerY - REFINE_RADIUS);
+                y <= Math.min(maxY, centerY + REFINE_RADIUS); y++) {
+            for (int x = Math.max(0, centerX - REFINE_RADIUS);
+                    x <= Math.min(maxX, centerX + REFINE_RADIUS); x++) {
+                double score = score(image, template, x, y);
+                if (best == null || score > best.score) {
+                    best = new Match(x, y, score);
+                }
+            }
+        }
+        return best != null ? best
+                : new Match(Math.min(centerX, maxX), Math.min(centerY, maxY), -1);
+    }
+
+    /**
+     * The normalized cross-correlation of the template with the image window at (x, y), from -1
+     * to 1. Flat windows and templates have no correlation; they score 1 if both are flat with
+     * the same brightness and 0 otherwise.
+     */
+    private static double score(Level image, TemplateLevel template, int x, int y) {
+        int w = template.level.width;
+        int h = template.level.height;
+        int n = w * h;
+        int[] luma = image.luma;
+        int[] templateLuma = template.level.luma;
+        long product = 0;
+        double windowSum;
+        double windowSquares;
+        if (image.sum != null) {
+            windowSum = image.windowSum(image.sum, x, y, w, h);
+            windowSquares = image.windowSum(image.sumSquares, x, y, w, h);
+            for (int ty = 0; ty < h; ty++) {
+                int row = (y + ty) * image.width + x;
+                int templateRow = ty * w;
+                for (int tx = 0; tx < w; tx++) {
+                    product += luma[row + tx] * templateLuma[templateRow + tx];
+                }
+            }
+        } else {
+            long sum = 0;
+            long squares = 0;
+            for (int ty = 0; ty < h; ty++) {
+                int row = (y + ty) * image.width + x;
+                int templateRow = ty * w;
+                for (int tx = 0; tx < w; tx++) {
+                    int value = luma[row + tx];
+                    sum += value;
+                    squares += value * value;
+                    product += value * templateLuma[templateRow + tx];
+                }
+            }
+            windowSum = sum;
+            windowSquares = squares;
+        }
+        double windowDeviation = Math.sqrt(Math.max(0, windowSquares - windowSum * windowSum / n));
+        if (windowDeviation < 1e-9 || template.deviation < 1e-9) {
+            boolean bothFlat = windowDeviation < 1e-9 && template.deviation < 1e-9;
+            return bothFlat && Math.abs(windowSum - template.sum) < n ? 1 : 0;
+        }
+        double covariance = product - windowSum * template.sum / n;
+        return covariance / (windowDeviation * template.deviation);
+    }
+
+    private static void sortByScore(List<Match> matches) {
+        Collections.sort(matches, new Comparator<Match>() {
+            @Override
+            public int compare(Match a, Match b) {
+                return Double.compare(b.score, a.score);
+            }
+        });
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MonkeyResponseTest {
+    private static MonkeyResponse parse(CharSequence line) {
+        MonkeyResponse response = new MonkeyResponse();
+        response.reset(line);
+        return response;
+    }
+
+    @Test
+    public void okWithoutPayload() {
+        MonkeyResponse response = parse("OK");
+        assertTrue(response.isOk());
+        assertFalse(response.isEndOfStream());
+        assertEquals(0, response.getPayloadLength());
+        assertEquals("", response.getPayload());
+        assertEquals(0, response.getTokenCount());
+    }
+
+    @Test
+    public void okWithPayload() {
+        MonkeyResponse response = parse("OK:1080");
+        assertTrue(response.isOk());
+        assertEquals("1080", response.getPayload());
+        assertTrue(response.payloadEquals("1080"));
+        assertFalse(response.payloadEquals("108"));
+        assertEquals('8', response.payloadCharAt(2));
+        assertEquals(1080, response.parseTokenAsInt(0));
+    }
+
+    @Test
+    public void error() {
+        MonkeyResponse response = parse("ERROR:unknown command");
+        assertFalse(response.isOk());
+        assertEquals("unknown command", response.getPayload());
+        assertEquals(Arrays.asList("unknown", "command"), response.getTokens());
+    }
+
+    @Test
+    public void payloadStartsAfterFirstColon() {
+        MonkeyResponse response = parse("OK:a:b");
+        assertEquals("a:b", response.getPayload());
+        StringBuilder builder = new StringBuilder("x");
+        response.appendPayloadTo(builder);
+        assertEquals("xa:b", builder.toString());
+    }
+
+    @Test
+    public void tokensSkipRepeatedSpaces() {
+        MonkeyResponse response = parse("OK:  a  bb   ccc ");
+        assertEquals(3, response.getTokenCount());
+        assertTrue(response.tokenEquals(0, "a"));
+        assertTrue(response.tokenEquals(1, "bb"));
+        assertFalse(response.tokenEquals(2, "cc"));
+        assertEquals("ccc", response.getToken(2));
+    }
+
+    @Test
+    public void manyTokens() {
+        StringBuilder line = new StringBuilder("OK:");
+        for (int i = 0; i < 100; i++) {
+            line.append(' ').append(i);
+        }
+        MonkeyResponse response = parse(line);
+        assertEquals(100, response.getTokenCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, response.parseTokenAsInt(i));
+        }
+    }
+
+    @Test
+    public void parseLongLimits() {
+        MonkeyResponse response = parse("OK:9223372036854775807 -9223372036854775808 -0");
+        assertEquals(Long.MAX_VALUE, response.parseTokenAsLong(0));
+        assertEquals(Long.MIN_VALUE, response.parseTokenAsLong(1));
+        assertEquals(0, response.parseTokenAsLong(2));
+    }
+
+    @Test
+    public void parseRejectsMalformedNumbers() {
+        MonkeyResponse response = parse(
+                "OK:9223372036854775808 -9223372036854775809 12a - 2147483648 99999999999999999999");
+        for (int i = 0; i < 4; i++) {
+            try {
+                response.parseTokenAsLong(i);
+                fail("Parsed " + response.getToken(i));
+            } catch (NumberFormatException expected) {
+                // Expected.
+            }
+        }
+        try {
+            response.parseTokenAsInt(4);
+            fail("Parsed " + response.getToken(4) + " as an int");
+        } catch (NumberFormatException expected) {
+            // Expected.
+        }
+        try {
+            response.parseTokenAsLong(5);
+            fail("Parsed " + response.getToken(5));
+        } catch (NumberFormatException expected) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void endOfStream() {
+        MonkeyResponse response = parse(null);
+        assertFalse(response.isOk());
+        assertTrue(response.isEndOfStream());
+        assertEquals("", response.getPayload());
+        assertEquals(0, response.getTokenCount());
+        assertNull(response.toString());
+    }
+
+    @Test
+    public void resetForgetsPreviousLine() {
+        StringBuilder buffer = new StringBuilder("OK:1 2 3");
+        MonkeyResponse response = parse(buffer);
+        assertEquals(3, response.getTokenCount());
+        buffer.setLength(0);
+        buffer.append("ERROR:x");
+        response.reset(buffer);
+        assertFalse(response.isOk());
+        assertEquals(1, response.getTokenCount());
+        assertEquals("x", response.getPayload());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void tokenIndexOutOfRange() {
+        parse("OK:a").getToken(1);
+    }
+}
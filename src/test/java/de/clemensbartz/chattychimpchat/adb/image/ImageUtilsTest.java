@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb.image;
+
+import com.android.ddmlib.RawImage;
+import org.junit.Test;
+
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Hashtable;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the pixel decoders against decoding through a ColorModel, the way raw images used to
+ * be converted.
+ */
+public class ImageUtilsTest {
+    // Offsets and lengths of red, green, blue and alpha.
+    private static final int[] RGBA_8888 = { 0, 8, 8, 8, 16, 8, 24, 8 };
+    private static final int[] RGBX_8888 = { 0, 8, 8, 8, 16, 8, 24, 0 };
+    private static final int[] BGRA_8888 = { 16, 8, 8, 8, 0, 8, 24, 8 };
+    private static final int[] ARGB_8888 = { 8, 8, 16, 8, 24, 8, 0, 8 };
+    private static final int[] RGBA_6662 = { 0, 6, 8, 6, 16, 6, 24, 2 };
+
+    /**
+     * Decodes a 16 or 32 bpp pixel through the channel offsets and lengths of a raw image.
+     */
+    private static final class ReferenceColorModel extends ColorModel {
+        private final RawImage image;
+
+        ReferenceColorModel(RawImage image) {
+            super(32, new int[] { 8, 8, 8, 8 }, ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                    true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+            this.image = image;
+        }
+
+        @Override
+        public boolean isCompatibleRaster(Raster raster) {
+            return true;
+        }
+
+        private int value(Object inData) {
+            byte[] data = (byte[]) inData;
+            int value = 0;
+            for (int i = 0; i < data.length; i++) {
+                value |= (data[i] & 0xFF) << (8 * i);
+            }
+            return value;
+        }
+
+        private static int channel(int value, int offset, int length) {
+            return ((value >>> offset) & ImageUtils.getMask(length)) << (8 - length);
+        }
+
+        @Override
+        public int getAlpha(Object inData) {
+            if (image.bpp == 16 || image.alpha_length == 0) {
+                return 0xFF;
+            }
+            return channel(value(inData), image.alpha_offset, image.alpha_length);
+        }
+
+        @Override
+        public int getRed(Object inData) {
+            return image.bpp == 16 ? channel(value(inData), 11, 5)
+                    : channel(value(inData), image.red_offset, image.red_length);
+        }
+
+        @Override
+        public int getGreen(Object inData) {
+            return image.bpp == 16 ? channel(value(inData), 5, 6)
+                    : channel(value(inData), image.green_offset, image.green_length);
+        }
+
+        @Override
+        public int getBlue(Object inData) {
+            return image.bpp == 16 ? channel(value(inData), 0, 5)
+                    : channel(value(inData), image.blue_offset, image.blue_length);
+        }
+
+        @Override
+        public int getAlpha(int pixel) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getRed(int pixel) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getGreen(int pixel) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getBlue(int pixel) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static RawImage image(int width, int height, int bpp, int[] layout, long seed) {
+        RawImage image = new RawImage();
+        image.version = 1;
+        image.bpp = bpp;
+        image.width = width;
+        image.height = height;
+        image.size = width * height * bpp / 8;
+        image.data = new byte[image.size];
+        new Random(seed).nextBytes(image.data);
+        if (layout != null) {
+            image.red_offset = layout[0];
+            image.red_length = layout[1];
+            image.green_offset = layout[2];
+            image.green_length = layout[3];
+            image.blue_offset = layout[4];
+            image.blue_length = layout[5];
+            image.alpha_offset = layout[6];
+            image.alpha_length = layout[7];
+        }
+        return image;
+    }
+
+    private static int[] reference(RawImage image) {
+        int bytesPerPixel = image.bpp / 8;
+        int[] bandOffsets = new int[bytesPerPixel];
+        for (int i = 0; i < bytesPerPixel; i++) {
+            bandOffsets[i] = i;
+        }
+        WritableRaster raster = Raster.createWritableRaster(
+                new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, image.width, image.height,
+                        bytesPerPixel, image.width * bytesPerPixel, bandOffsets),
+                new DataBufferByte(image.data, image.size), new Point(0, 0));
+        BufferedImage buffered = new BufferedImage(new ReferenceColorModel(image), raster, false,
+                new Hashtable<Object, Object>());
+        return buffered.getRGB(0, 0, image.width, image.height, null, 0, image.width);
+    }
+
+    private static void assertDecodesLikeReference(RawImage image) {
+        int[] expected = reference(image);
+        assertArrayEquals(expected, ImageUtils.convertToArgb(image, null));
+        BufferedImage converted = ImageUtils.convertImage(image);
+        assertEquals(BufferedImage.TYPE_INT_ARGB, converted.getType());
+        assertArrayEquals(expected,
+                converted.getRGB(0, 0, image.width, image.height, null, 0, image.width));
+    }
+
+    @Test
+    public void rgba8888() {
+        assertDecodesLikeReference(image(37, 23, 32, RGBA_8888, 1));
+    }
+
+    @Test
+    public void rgbx8888() {
+        assertDecodesLikeReference(image(37, 23, 32, RGBX_8888, 2));
+    }
+
+    @Test
+    public void bgra8888() {
+        assertDecodesLikeReference(image(37, 23, 32, BGRA_8888, 3));
+    }
+
+    @Test
+    public void otherByteOrder() {
+        assertDecodesLikeReference(image(37, 23, 32, ARGB_8888, 4));
+    }
+
+    @Test
+    public void shortChannels() {
+        assertDecodesLikeReference(image(37, 23, 32, RGBA_6662, 5));
+    }
+
+    @Test
+    public void rgb565() {
+        assertDecodesLikeReference(image(37, 23, 16, null, 6));
+    }
+
+    @Test
+    public void largeImagesInParallelBands() {
+        assertDecodesLikeReference(image(1080, 601, 32, RGBA_8888, 7));
+        assertDecodesLikeReference(image(1080, 601, 16, null, 8));
+    }
+
+    @Test
+    public void convertImageReusesMatchingImage() {
+        RawImage image = image(20, 10, 32, BGRA_8888, 9);
+        BufferedImage first = ImageUtils.convertImage(image);
+        assertSame(first, ImageUtils.convertImage(image(20, 10, 32, RGBA_8888, 10), first));
+        assertNotEquals(first, ImageUtils.convertImage(image(21, 10, 32, RGBA_8888, 11), first));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedBpp() {
+        ImageUtils.convertToArgb(image(10, 10, 24, RGBA_8888, 16), null);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.adb.image;
+
+import com.android.ddmlib.RawImage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RawImageFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static RawImage image(int width, int height, int bpp, long seed) {
+        RawImage image = new RawImage();
+        image.version = 2;
+        image.bpp = bpp;
+        image.width = width;
+        image.height = height;
+        image.size = width * height * bpp / 8;
+        image.data = new byte[image.size];
+        // Half noise, half flat, so that compression has something to do.
+        new Random(seed).nextBytes(image.data);
+        for (int i = image.size / 2; i < image.size; i++) {
+            image.data[i] = (byte) (i / 64);
+        }
+        image.red_offset = 16;
+        image.red_length = 8;
+        image.green_offset = 8;
+        image.green_length = 8;
+        image.blue_offset = 0;
+        image.blue_length = 8;
+        image.alpha_offset = 24;
+        image.alpha_length = bpp == 32 ? 8 : 0;
+        return image;
+    }
+
+    private static void assertSameImage(RawImage expected, RawImage actual) {
+        assertEquals(expected.version, actual.version);
+        assertEquals(expected.bpp, actual.bpp);
+        assertEquals(expected.size, actual.size);
+        assertEquals(expected.width, actual.width);
+        assertEquals(expected.height, actual.height);
+        assertEquals(expected.red_offset, actual.red_offset);
+        assertEquals(expected.red_length, actual.red_length);
+        assertEquals(expected.green_offset, actual.green_offset);
+        assertEquals(expected.green_length, actual.green_length);
+        assertEquals(expected.blue_offset, actual.blue_offset);
+        assertEquals(expected.blue_length, actual.blue_length);
+        assertEquals(expected.alpha_offset, actual.alpha_offset);
+        assertEquals(expected.alpha_length, actual.alpha_length);
+        assertArrayEquals(expected.data, actual.data);
+    }
+
+    @Test
+    public void singleFrame() throws IOException {
+        for (int level : new int[] { 0, 1, 9 }) {
+            RawImage image = image(64, 48, 32, level);
+            Path path = folder.newFile().toPath();
+            RawImageFile.write(image, path, level);
+            assertSameImage(image, RawImageFile.read(path));
+        }
+    }
+
+    @Test
+    public void compressionShrinksFile() throws IOException {
+        RawImage image = image(64, 48, 32, 1);
+        Path stored = folder.newFile().toPath();
+        Path compressed = folder.newFile().toPath();
+        RawImageFile.write(image, stored, 0);
+        RawImageFile.write(image, compressed, 6);
+        assertEquals(72 + image.size, Files.size(stored));
+        assertTrue(Files.size(compressed) < Files.size(stored));
+    }
+
+    @Test
+    public void manyFramesReusingBuffer() throws IOException {
+        RawImage[] images = { image(64, 48, 32, 1), image(64, 48, 32, 2), image(30, 20, 16, 3),
+                image(64, 48, 32, 4), image(0, 0, 32, 5) };
+        for (int level : new int[] { 0, 6 }) {
+            Path path = folder.newFile().toPath();
+            RawImageFile.Writer writer = RawImageFile.Writer.create(path, level);
+            try {
+                for (RawImage image : images) {
+                    writer.write(image);
+                }
+            } finally {
+                writer.close();
+            }
+
+            RawImageFile.Reader reader = RawImageFile.Reader.open(path);
+            try {
+                RawImage reuse = new RawImage();
+                byte[] firstBuffer = null;
+                for (int i = 0; i < images.length; i++) {
+                    assertTrue(reader.hasNext());
+                    assertSame(reuse, reader.next(reuse));
+                    assertSameImage(images[i], reuse);
+                    if (i == 0) {
+                        firstBuffer = reuse.data;
+                    } else if (i == 1) {
+                        // Same size, so the pixel buffer is reused.
+                        assertSame(firstBuffer, reuse.data);
+                    }
+                }
+                assertFalse(reader.hasNext());
+                try {
+                    reader.next();
+                    fail("Read past the last frame");
+                } catch (IOException expected) {
+                    // Expected.
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void nextImageDecodes() throws IOException {
+        RawImage image = image(8, 4, 32, 1);
+        Path path = folder.newFile().toPath();
+        RawImageFile.write(image, path, 0);
+        RawImageFile.Reader reader = RawImageFile.Reader.open(path);
+        try {
+            assertArrayEquals(ImageUtils.convertToArgb(image, null),
+                    reader.nextImage().getBufferedImage().getRGB(0, 0, 8, 4, null, 0, 8));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void rejectsCorruptFiles() throws IOException {
+        Path path = folder.newFile().toPath();
+        RawImageFile.write(image(16, 16, 32, 1), path, 6);
+        byte[] bytes = Files.readAllBytes(path);
+
+        // Not a record.
+        byte[] wrongMagic = bytes.clone();
+        wrongMagic[0] = 'X';
+        assertCorrupt(wrongMagic);
+        // Data cut short.
+        byte[] truncated = new byte[bytes.length - 10];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertCorrupt(truncated);
+        // Compressed data that does not inflate.
+        byte[] garbage = bytes.clone();
+        for (int i = 72; i < garbage.length; i++) {
+            garbage[i] = (byte) 0xFF;
+        }
+        assertCorrupt(garbage);
+    }
+
+    private void assertCorrupt(byte[] bytes) throws IOException {
+        Path path = folder.newFile().toPath();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        try {
+            channel.write(ByteBuffer.wrap(bytes));
+        } finally {
+            channel.close();
+        }
+        try {
+            RawImageFile.read(path);
+            fail("Read a corrupt file");
+        } catch (IOException expected) {
+            // Expected.
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCompressionLevel() throws IOException {
+        RawImageFile.write(image(4, 4, 32, 1), folder.newFile().toPath(), 10);
+    }
+}
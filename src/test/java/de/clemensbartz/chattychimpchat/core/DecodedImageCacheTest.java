@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class DecodedImageCacheTest {
+    /**
+     * An image that decodes into a new raster of the given type every time, and counts that.
+     */
+    private static final class CountingImage extends ChimpImageBase {
+        private final int width;
+        private final int height;
+        private final int type;
+        int decodes = 0;
+
+        CountingImage(int width, int height, int type) {
+            this.width = width;
+            this.height = height;
+            this.type = type;
+        }
+
+        CountingImage(int width, int height) {
+            this(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        @Override
+        public BufferedImage createBufferedImage() {
+            decodes++;
+            return new BufferedImage(width, height, type);
+        }
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20);
+        CountingImage image = new CountingImage(10, 10);
+        BufferedImage decoded = cache.get(image);
+        assertSame(decoded, cache.get(image));
+        assertEquals(1, image.decodes);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(400, cache.getBytes());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void imagesAreKeyedByIdentity() {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20);
+        CountingImage first = new CountingImage(10, 10);
+        CountingImage second = new CountingImage(10, 10);
+        assertNotSame(cache.get(first), cache.get(second));
+        assertEquals(2, cache.size());
+        assertEquals(800, cache.getBytes());
+    }
+
+    @Test
+    public void rastersAreCountedByTheirSize() {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20);
+        cache.get(new CountingImage(10, 10, BufferedImage.TYPE_3BYTE_BGR));
+        assertEquals(300, cache.getBytes());
+        cache.get(new CountingImage(10, 10, BufferedImage.TYPE_USHORT_565_RGB));
+        assertEquals(500, cache.getBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        DecodedImageCache cache = new DecodedImageCache(1000);
+        CountingImage a = new CountingImage(10, 10);
+        CountingImage b = new CountingImage(10, 10);
+        CountingImage c = new CountingImage(10, 10);
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+        assertEquals(800, cache.getBytes());
+
+        // a and c are still cached, b is decoded again.
+        cache.get(a);
+        cache.get(c);
+        assertEquals(1, a.decodes);
+        assertEquals(1, c.decodes);
+        cache.get(b);
+        assertEquals(2, b.decodes);
+        assertEquals(2, cache.getEvictions());
+        assertEquals(800, cache.getBytes());
+    }
+
+    @Test
+    public void imagesLargerThanTheBudgetAreNotCached() {
+        DecodedImageCache cache = new DecodedImageCache(1000);
+        CountingImage small = new CountingImage(10, 10);
+        CountingImage large = new CountingImage(20, 20);
+        cache.get(small);
+        cache.get(large);
+        cache.get(large);
+        assertEquals(2, large.decodes);
+        assertEquals(0, cache.getEvictions());
+        assertEquals(1, cache.size());
+        assertEquals(400, cache.getBytes());
+    }
+
+    @Test
+    public void shrinkingTheBudgetEvicts() {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20);
+        for (int i = 0; i < 5; i++) {
+            cache.get(new CountingImage(10, 10));
+        }
+        assertEquals(2000, cache.getBytes());
+        cache.setMaxBytes(900);
+        assertEquals(900, cache.getMaxBytes());
+        assertEquals(2, cache.size());
+        assertEquals(800, cache.getBytes());
+        assertEquals(3, cache.getEvictions());
+    }
+
+    @Test
+    public void clear() {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20);
+        CountingImage image = new CountingImage(10, 10);
+        cache.get(image);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        cache.get(image);
+        assertEquals(2, image.decodes);
+        assertEquals(400, cache.getBytes());
+    }
+
+    @Test
+    public void releasesRastersOfUnusedImages() throws InterruptedException {
+        DecodedImageCache cache = new DecodedImageCache(1 << 20);
+        CountingImage kept = new CountingImage(10, 10);
+        cache.get(kept);
+        cache.get(new CountingImage(10, 10));
+        assertEquals(800, cache.getBytes());
+        for (int i = 0; i < 100 && cache.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, cache.size());
+        assertEquals(400, cache.getBytes());
+        cache.get(kept);
+        assertEquals(1, kept.decodes);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GestureTest {
+    private static void assertPoints(Gesture gesture, int[] xs, int[] ys, long[] timesMs) {
+        assertEquals(xs.length, gesture.size());
+        for (int i = 0; i < xs.length; i++) {
+            assertEquals("x of point " + i, xs[i], gesture.getX(i));
+            assertEquals("y of point " + i, ys[i], gesture.getY(i));
+            assertEquals("time of point " + i, TimeUnit.MILLISECONDS.toNanos(timesMs[i]),
+                    gesture.getTimeNanos(i));
+        }
+    }
+
+    @Test
+    public void line() {
+        assertPoints(Gesture.line(0, 0, 100, 50, 4, 400),
+                new int[] { 0, 25, 50, 75, 100 }, new int[] { 0, 13, 25, 38, 50 },
+                new long[] { 0, 100, 200, 300, 400 });
+        assertEquals(400, Gesture.line(0, 0, 100, 50, 4, 400).getDurationMs());
+    }
+
+    @Test
+    public void lineBackwards() {
+        assertPoints(Gesture.line(300, 200, 100, 0, 2, 50),
+                new int[] { 300, 200, 100 }, new int[] { 200, 100, 0 },
+                new long[] { 0, 25, 50 });
+    }
+
+    @Test
+    public void quadraticBezier() {
+        assertPoints(Gesture.quadraticBezier(0, 0, 50, 100, 100, 0, 4, 400),
+                new int[] { 0, 25, 50, 75, 100 }, new int[] { 0, 38, 50, 38, 0 },
+                new long[] { 0, 100, 200, 300, 400 });
+    }
+
+    @Test
+    public void cubicBezier() {
+        // The control points pull the middle of the curve up to three quarters of their height.
+        Gesture gesture = Gesture.cubicBezier(0, 0, 0, 100, 100, 100, 100, 0, 2, 20);
+        assertEquals(3, gesture.size());
+        assertEquals(50, gesture.getX(1));
+        assertEquals(75, gesture.getY(1));
+        assertEquals(100, gesture.getX(2));
+        assertEquals(0, gesture.getY(2));
+    }
+
+    @Test
+    public void flingSpeedsUp() {
+        Gesture gesture = Gesture.fling(0, 0, 0, 400, 4, 100);
+        assertPoints(gesture, new int[] { 0, 0, 0, 0, 0 }, new int[] { 0, 25, 100, 225, 400 },
+                new long[] { 0, 25, 50, 75, 100 });
+        // The last step covers more ground than the first.
+        assertTrue(gesture.getY(4) - gesture.getY(3) > gesture.getY(1) - gesture.getY(0));
+    }
+
+    @Test
+    public void singleStep() {
+        assertPoints(Gesture.line(10, 20, 30, 40, 1, 0),
+                new int[] { 10, 30 }, new int[] { 20, 40 }, new long[] { 0, 0 });
+    }
+
+    @Test
+    public void timesDivideDurationEvenly() {
+        Gesture gesture = Gesture.line(0, 0, 10, 10, 3, 100);
+        assertEquals(0, gesture.getTimeNanos(0));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100) / 3, gesture.getTimeNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100) * 2 / 3, gesture.getTimeNanos(2));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), gesture.getTimeNanos(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoSteps() {
+        Gesture.line(0, 0, 10, 10, 0, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeDuration() {
+        Gesture.fling(0, 0, 10, 10, 5, -1);
+    }
+}
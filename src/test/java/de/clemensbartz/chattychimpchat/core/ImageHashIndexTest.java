@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ImageHashIndexTest {
+    @Test
+    public void findNearest() {
+        ImageHashIndex<String> index = new ImageHashIndex<String>();
+        index.add(0b0000L, "none");
+        index.add(0b0111L, "three");
+        index.add(0b1111_1111L, "eight");
+        assertEquals(3, index.size());
+        assertEquals("none", index.findNearest(0b0001L, 5));
+        assertEquals("three", index.findNearest(0b0011L, 5));
+        assertEquals("eight", index.findNearest(0b1111_1110L, 1));
+        assertNull(index.findNearest(0b1111_0000L, 3));
+        assertNull(new ImageHashIndex<String>().findNearest(0L, 64));
+    }
+
+    @Test
+    public void findNearestPrefersFirstOfEqualDistance() {
+        ImageHashIndex<String> index = new ImageHashIndex<String>();
+        index.add(0b01L, "first");
+        index.add(0b10L, "second");
+        assertEquals("first", index.findNearest(0b00L, 64));
+    }
+
+    @Test
+    public void findAllSortsByDistance() {
+        ImageHashIndex<String> index = new ImageHashIndex<String>();
+        index.add(0b111L, "c3");
+        index.add(0b001L, "a1");
+        index.add(0b000L, "zero");
+        index.add(0b010L, "b1");
+        index.add(-1L, "all");
+        assertEquals(Arrays.asList("zero", "a1", "b1", "c3"), index.findAll(0L, 3));
+        assertEquals(Arrays.asList("zero", "a1", "b1"), index.findAll(0L, 1));
+        assertEquals(Arrays.asList("zero", "a1", "b1", "c3", "all"), index.findAll(0L, 100));
+        assertEquals(Collections.emptyList(), index.findAll(0L, -1));
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        ImageHashIndex<Integer> index = new ImageHashIndex<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            index.add((long) i << 20, i);
+        }
+        assertEquals(1000, index.size());
+        assertEquals(Integer.valueOf(777), index.findNearest(777L << 20, 0));
+        assertEquals(Integer.valueOf(999), index.findAll(999L << 20, 0).get(0));
+    }
+}
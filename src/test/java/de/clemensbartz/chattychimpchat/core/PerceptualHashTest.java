@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PerceptualHashTest {
+    private static int gray(int level) {
+        return 0xFF000000 | level << 16 | level << 8 | level;
+    }
+
+    /**
+     * Render a pattern of blocks of random brightness at the given resolution.
+     */
+    private static int[] blocks(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] levels = new int[18 * 16];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = random.nextInt(256);
+        }
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = gray(levels[(y * 16 / height) * 18 + x * 18 / width]);
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void gradients() {
+        int width = 90;
+        int height = 40;
+        int[] brighter = new int[width * height];
+        int[] darker = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                brighter[y * width + x] = gray(x * 255 / (width - 1));
+                darker[y * width + x] = gray(255 - x * 255 / (width - 1));
+            }
+        }
+        // Every cell is darker than its right neighbour, or none is.
+        assertEquals(-1L, PerceptualHash.dHash(brighter, width, height));
+        assertEquals(0L, PerceptualHash.dHash(darker, width, height));
+    }
+
+    @Test
+    public void uniformAndEmptyImages() {
+        int[] pixels = new int[50 * 50];
+        Arrays.fill(pixels, gray(128));
+        assertEquals(0L, PerceptualHash.dHash(pixels, 50, 50));
+        assertEquals(0L, PerceptualHash.dHash(new int[0], 0, 0));
+    }
+
+    @Test
+    public void imagesSmallerThanTheGrid() {
+        int[] pixels = { gray(0), gray(100), gray(200), gray(50), gray(250), gray(10) };
+        // Must not fail on cells without pixels.
+        PerceptualHash.dHash(pixels, 3, 2);
+    }
+
+    @Test
+    public void independentOfResolution() {
+        long hash = PerceptualHash.dHash(blocks(180, 160, 1), 180, 160);
+        assertEquals(hash, PerceptualHash.dHash(blocks(720, 1280, 1), 720, 1280));
+        assertEquals(hash, PerceptualHash.dHash(blocks(1080, 1920, 1), 1080, 1920));
+    }
+
+    @Test
+    public void smallChangesFlipFewBits() {
+        int width = 1080;
+        int height = 1920;
+        int[] pixels = blocks(width, height, 2);
+        long hash = PerceptualHash.dHash(pixels, width, height);
+        // A status bar clock: a small white patch in a corner.
+        for (int y = 10; y < 40; y++) {
+            for (int x = 950; x < 1050; x++) {
+                pixels[y * width + x] = gray(255);
+            }
+        }
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(pixels, width, height))
+                <= 2);
+        long other = PerceptualHash.dHash(blocks(width, height, 3), width, height);
+        assertTrue(PerceptualHash.distance(hash, other) > 10);
+    }
+
+    @Test
+    public void colorsCountByLuma() {
+        int[] greenThenRed = new int[18 * 8];
+        for (int i = 0; i < greenThenRed.length; i++) {
+            greenThenRed[i] = i % 18 < 9 ? 0xFFFF0000 : 0xFF00FF00;
+        }
+        assertNotEquals(0L, PerceptualHash.dHash(greenThenRed, 18, 8));
+    }
+
+    @Test
+    public void distance() {
+        assertEquals(0, PerceptualHash.distance(0x1234L, 0x1234L));
+        assertEquals(64, PerceptualHash.distance(0L, -1L));
+        assertEquals(3, PerceptualHash.distance(0b1011L, 0b0000L));
+    }
+}
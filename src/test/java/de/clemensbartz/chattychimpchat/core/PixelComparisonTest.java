@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PixelComparisonTest {
+    /**
+     * The definition maxDifferentPixels has to meet, by trying every count.
+     */
+    private static long slowMaxDifferentPixels(long pixelCount, double percent) {
+        long max = -1;
+        if (pixelCount == 0) {
+            return max;
+        }
+        for (long d = 0; d <= pixelCount; d++) {
+            if (percent <= 1.0 - d / (double) pixelCount) {
+                max = d;
+            }
+        }
+        return max;
+    }
+
+    @Test
+    public void maxDifferentPixelsMeetsDefinition() {
+        double[] percents = { 0.0, 0.1, 0.3, 0.5, 0.7, 0.9, 0.95, 0.99, 0.999, 1.0, 1.5, -0.5 };
+        for (long count : new long[] { 1, 2, 3, 7, 10, 100, 999, 1000, 1001 }) {
+            for (double percent : percents) {
+                assertEquals(count + " pixels at " + percent,
+                        slowMaxDifferentPixels(count, percent),
+                        PixelComparison.maxDifferentPixels(count, percent));
+            }
+        }
+    }
+
+    @Test
+    public void noPixelsNeverCompareAsSame() {
+        assertEquals(-1, PixelComparison.maxDifferentPixels(0, 0.0));
+        assertFalse(PixelComparison.sameAs(new int[0], new int[0], 0, 0, null, -1));
+    }
+
+    private static int[] random(int length, long seed) {
+        int[] pixels = new int[length];
+        Random random = new Random(seed);
+        for (int i = 0; i < length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    /**
+     * Check sameAs at the number of differing pixels and one below it.
+     */
+    private static void assertDifferentPixels(int[] mine, int[] other, int width, int height,
+            int different) {
+        assertTrue(PixelComparison.sameAs(mine, other, width, height, null, different));
+        assertTrue(PixelComparison.sameAs(mine, other, width, height, null, different + 1));
+        if (different > 0) {
+            assertFalse(PixelComparison.sameAs(mine, other, width, height, null, different - 1));
+        }
+    }
+
+    @Test
+    public void countsDifferingPixels() {
+        int width = 97;
+        int height = 61;
+        int[] mine = random(width * height, 1);
+        int[] other = mine.clone();
+        assertDifferentPixels(mine, other, width, height, 0);
+        Random random = new Random(2);
+        int different = 0;
+        for (int i = 0; i < other.length; i += 1 + random.nextInt(40)) {
+            other[i] = ~other[i];
+            different++;
+        }
+        assertDifferentPixels(mine, other, width, height, different);
+    }
+
+    @Test
+    public void countsDifferingPixelsInParallelBands() {
+        int width = 1080;
+        int height = 1000;
+        int[] mine = random(width * height, 3);
+        int[] other = mine.clone();
+        // Differences in the first and the last rows, which different bands compare.
+        for (int x = 0; x < 100; x++) {
+            other[x] ^= 1;
+            other[(height - 1) * width + x] ^= 1;
+        }
+        assertDifferentPixels(mine, other, width, height, 200);
+    }
+
+    @Test
+    public void allPixelsMayDiffer() {
+        int[] mine = random(100, 4);
+        int[] other = random(100, 5);
+        assertTrue(PixelComparison.sameAs(mine, other, 10, 10, null, 100));
+        assertFalse(PixelComparison.sameAs(mine, other, 10, 10, null, -1));
+    }
+}
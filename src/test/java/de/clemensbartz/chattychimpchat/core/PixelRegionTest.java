@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PixelRegionTest {
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    /**
+     * Expand a region into one flag per pixel, checking that its spans are sorted and apart.
+     */
+    private static boolean[] pixels(PixelRegion region, int width, int height) {
+        boolean[] pixels = new boolean[width * height];
+        long count = 0;
+        for (int row = region.firstRow; row < region.endRow; row++) {
+            int previousEnd = -1;
+            int end = region.rowSpans[row - region.firstRow + 1];
+            for (int s = region.rowSpans[row - region.firstRow]; s < end; s += 2) {
+                int start = region.spans[s];
+                int stop = region.spans[s + 1];
+                assertTrue("Spans out of order", start > previousEnd && start < stop);
+                for (int x = start; x < stop; x++) {
+                    pixels[row * width + x] = true;
+                    count++;
+                }
+                previousEnd = stop;
+            }
+        }
+        assertEquals(count, region.pixelCount);
+        return pixels;
+    }
+
+    private static boolean inAny(List<ChimpRect> rects, int x, int y) {
+        for (ChimpRect rect : rects) {
+            if (rect.left <= x && x < rect.right && rect.top <= y && y < rect.bottom) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void assertRegion(List<ChimpRect> include, List<ChimpRect> exclude) {
+        boolean[] actual = pixels(PixelRegion.fromRects(WIDTH, HEIGHT, include, exclude),
+                WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean expected = (include == null || include.isEmpty() || inAny(include, x, y))
+                        && (exclude == null || !inAny(exclude, x, y));
+                assertEquals("(" + x + "," + y + ")", expected, actual[y * WIDTH + x]);
+            }
+        }
+    }
+
+    @Test
+    public void wholeImage() {
+        PixelRegion region = PixelRegion.fromRects(WIDTH, HEIGHT, null, null);
+        assertEquals(WIDTH * HEIGHT, region.pixelCount);
+        assertRegion(Collections.<ChimpRect>emptyList(), null);
+    }
+
+    @Test
+    public void overlappingAndTouchingRects() {
+        assertRegion(Arrays.asList(new ChimpRect(5, 5, 15, 10), new ChimpRect(10, 8, 20, 12),
+                new ChimpRect(20, 8, 25, 9)), null);
+    }
+
+    @Test
+    public void rectsAreClipped() {
+        assertRegion(Arrays.asList(new ChimpRect(-5, -5, 3, 3),
+                new ChimpRect(35, 25, 50, 40)), null);
+    }
+
+    @Test
+    public void excludedRectsAreCutOut() {
+        assertRegion(Arrays.asList(new ChimpRect(0, 0, 30, 20)),
+                Arrays.asList(new ChimpRect(5, 5, 10, 10), new ChimpRect(8, 2, 12, 7),
+                        new ChimpRect(25, -3, 45, 4), new ChimpRect(0, 15, 30, 20)));
+        assertRegion(null, Arrays.asList(new ChimpRect(10, 10, 20, 20)));
+    }
+
+    @Test
+    public void randomRects() {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            assertRegion(randomRects(random), random.nextBoolean() ? randomRects(random) : null);
+        }
+    }
+
+    private static List<ChimpRect> randomRects(Random random) {
+        ChimpRect[] rects = new ChimpRect[random.nextInt(4)];
+        for (int i = 0; i < rects.length; i++) {
+            int left = random.nextInt(WIDTH + 10) - 5;
+            int top = random.nextInt(HEIGHT + 10) - 5;
+            rects[i] = new ChimpRect(left, top, left + random.nextInt(WIDTH),
+                    top + random.nextInt(HEIGHT));
+        }
+        return Arrays.asList(rects);
+    }
+
+    @Test
+    public void emptyRegion() {
+        PixelRegion region = PixelRegion.fromRects(WIDTH, HEIGHT,
+                Arrays.asList(new ChimpRect(50, 50, 60, 60), new ChimpRect(5, 5, 5, 10)), null);
+        assertEquals(0, region.pixelCount);
+        assertEquals(0, PixelRegion.fromMask(WIDTH, HEIGHT, new BitSet()).pixelCount);
+    }
+
+    @Test
+    public void mask() {
+        Random random = new Random(2);
+        BitSet mask = new BitSet();
+        for (int i = 3 * WIDTH + 7; i < (HEIGHT - 2) * WIDTH; i++) {
+            if (random.nextInt(3) == 0) {
+                mask.set(i);
+            }
+        }
+        // Whole rows, so that runs end at the edge of the image.
+        mask.set(10 * WIDTH, 12 * WIDTH);
+        // Bits past the image are ignored.
+        mask.set(WIDTH * HEIGHT, WIDTH * HEIGHT + 5);
+        boolean[] actual = pixels(PixelRegion.fromMask(WIDTH, HEIGHT, mask), WIDTH, HEIGHT);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            assertEquals("bit " + i, mask.get(i), actual[i]);
+        }
+    }
+
+    @Test
+    public void comparisonOnlyCountsRegion() {
+        int[] mine = new int[WIDTH * HEIGHT];
+        int[] other = new int[WIDTH * HEIGHT];
+        // Ten differing pixels inside the region, and a differing row outside it.
+        for (int x = 10; x < 20; x++) {
+            other[15 * WIDTH + x] = 1;
+        }
+        Arrays.fill(other, 0, WIDTH, 1);
+        PixelRegion region = PixelRegion.fromRects(WIDTH, HEIGHT,
+                Arrays.asList(new ChimpRect(0, 10, WIDTH, 20)), null);
+        assertTrue(PixelComparison.sameAs(mine, other, WIDTH, HEIGHT, region, 10));
+        assertFalse(PixelComparison.sameAs(mine, other, WIDTH, HEIGHT, region, 9));
+
+        BitSet mask = new BitSet();
+        mask.set(15 * WIDTH + 10, 15 * WIDTH + 14);
+        region = PixelRegion.fromMask(WIDTH, HEIGHT, mask);
+        assertTrue(PixelComparison.sameAs(mine, other, WIDTH, HEIGHT, region, 4));
+        assertFalse(PixelComparison.sameAs(mine, other, WIDTH, HEIGHT, region, 3));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PngEncoderTest {
+    /**
+     * Gradients with some noise, so that every filter has something to do.
+     */
+    private static int[] pixels(int width, int height, boolean alpha, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (x * 255 / width + random.nextInt(8)) & 0xFF;
+                int green = (y * 255 / height) & 0xFF;
+                int blue = ((x + y) * 7) & 0xFF;
+                int a = alpha ? (x * 3 + y) & 0xFF : 0xFF;
+                pixels[y * width + x] = a << 24 | red << 16 | green << 8 | blue;
+            }
+        }
+        return pixels;
+    }
+
+    private static byte[] encode(PngEncoder encoder, int[] pixels, int width, int height)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(pixels, width, height, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private static void assertRoundTrip(PngEncoder encoder, int width, int height,
+            boolean alpha) throws IOException {
+        int[] pixels = pixels(width, height, alpha, width * 31 + height);
+        byte[] png = encode(encoder, pixels, width, height);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+        String description = encoder.getFilter() + (encoder.isParallel() ? " parallel" : "")
+                + (alpha ? " with alpha" : "");
+        assertEquals(description, width, decoded.getWidth());
+        assertEquals(description, height, decoded.getHeight());
+        assertEquals(description, alpha, decoded.getColorModel().hasAlpha());
+        assertArrayEquals(description, pixels,
+                decoded.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    @Test
+    public void everyFilterSerial() throws IOException {
+        for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+            PngEncoder encoder = new PngEncoder();
+            encoder.setFilter(filter);
+            assertRoundTrip(encoder, 67, 45, false);
+            assertRoundTrip(encoder, 67, 45, true);
+            assertRoundTrip(encoder, 1, 1, false);
+        }
+    }
+
+    @Test
+    public void everyFilterParallel() throws IOException {
+        for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+            PngEncoder encoder = new PngEncoder();
+            encoder.setFilter(filter);
+            encoder.setParallel(true);
+            // Large enough to be compressed in several bands.
+            assertRoundTrip(encoder, 720, 640, false);
+            assertRoundTrip(encoder, 720, 640, true);
+            // Too small to be split.
+            assertRoundTrip(encoder, 67, 45, true);
+        }
+    }
+
+    @Test
+    public void parallelCompressesAboutAsWellAsSerial() throws IOException {
+        int[] pixels = pixels(720, 1280, false, 1);
+        PngEncoder encoder = new PngEncoder();
+        int serial = encode(encoder, pixels, 720, 1280).length;
+        encoder.setParallel(true);
+        int parallel = encode(encoder, pixels, 720, 1280).length;
+        assertTrue(serial + " vs " + parallel, parallel < serial * 1.05);
+    }
+
+    @Test
+    public void compressionLevels() throws IOException {
+        PngEncoder encoder = new PngEncoder();
+        encoder.setCompressionLevel(0);
+        assertRoundTrip(encoder, 100, 80, false);
+        int stored = encode(encoder, pixels(100, 80, false, 2), 100, 80).length;
+        encoder.setCompressionLevel(9);
+        assertRoundTrip(encoder, 100, 80, false);
+        assertTrue(encode(encoder, pixels(100, 80, false, 2), 100, 80).length < stored);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCompressionLevel() {
+        new PngEncoder().setCompressionLevel(10);
+    }
+
+    @Test
+    public void combineAdler32() {
+        byte[] data = new byte[100000];
+        new Random(3).nextBytes(data);
+        for (int split : new int[] { 0, 1, 5552, 65521, 70000, data.length }) {
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            Adler32 whole = new Adler32();
+            whole.update(data);
+            assertEquals("split at " + split, whole.getValue(), PngEncoder.combineAdler32(
+                    first.getValue(), second.getValue(), data.length - split));
+        }
+    }
+}
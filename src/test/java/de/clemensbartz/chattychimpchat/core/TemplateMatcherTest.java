@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.clemensbartz.chattychimpchat.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TemplateMatcherTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    /**
+     * Blocks of random colors, three pixels wide, like the text and icons of a screen.
+     */
+    private static int[] blocks(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int columns = (width + 2) / 3;
+        int[] colors = new int[columns * ((height + 2) / 3)];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = colors[(y / 3) * columns + x / 3];
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] cut(int[] pixels, int width, ChimpRect rect) {
+        int[] part = new int[rect.getWidth() * rect.getHeight()];
+        for (int y = 0; y < rect.getHeight(); y++) {
+            System.arraycopy(pixels, (rect.top + y) * width + rect.left, part,
+                    y * rect.getWidth(), rect.getWidth());
+        }
+        return part;
+    }
+
+    private static void paste(int[] pixels, int width, int[] part, int partWidth, int x, int y) {
+        int partHeight = part.length / partWidth;
+        for (int row = 0; row < partHeight; row++) {
+            System.arraycopy(part, row * partWidth, pixels, (y + row) * width + x, partWidth);
+        }
+    }
+
+    private static List<ChimpRect> locate(int[] image, int[] template, ChimpRect size,
+            double threshold) {
+        return TemplateMatcher.locate(image, WIDTH, HEIGHT, template, size.getWidth(),
+                size.getHeight(), threshold);
+    }
+
+    @Test
+    public void findsCutOutPart() {
+        int[] image = blocks(WIDTH, HEIGHT, 1);
+        // Odd positions and sizes, which do not line up with the coarser levels.
+        for (ChimpRect rect : Arrays.asList(new ChimpRect(123, 77, 171, 114),
+                new ChimpRect(0, 0, 64, 64), new ChimpRect(251, 181, 320, 240),
+                new ChimpRect(40, 50, 51, 59))) {
+            List<ChimpRect> matches = locate(image, cut(image, WIDTH, rect), rect, 0.95);
+            assertEquals(rect.toString(), 1, matches.size());
+            assertEquals(rect, matches.get(0));
+            // An exact copy matches even the highest threshold.
+            assertEquals(rect, locate(image, cut(image, WIDTH, rect), rect, 1.0).get(0));
+        }
+    }
+
+    @Test
+    public void findsEveryCopy() {
+        int[] image = blocks(WIDTH, HEIGHT, 2);
+        ChimpRect size = new ChimpRect(0, 0, 45, 33);
+        int[] template = blocks(45, 33, 3);
+        paste(image, WIDTH, template, 45, 17, 21);
+        paste(image, WIDTH, template, 45, 200, 150);
+        List<ChimpRect> matches = locate(image, template, size, 0.9);
+        assertEquals(2, matches.size());
+        assertTrue(matches.contains(new ChimpRect(17, 21, 62, 54)));
+        assertTrue(matches.contains(new ChimpRect(200, 150, 245, 183)));
+    }
+
+    @Test
+    public void toleratesChangedBrightness() {
+        int[] image = blocks(WIDTH, HEIGHT, 4);
+        ChimpRect rect = new ChimpRect(90, 60, 150, 100);
+        int[] template = cut(image, WIDTH, rect);
+        // Correlation does not change when the template is darker overall.
+        for (int i = 0; i < template.length; i++) {
+            int pixel = template[i];
+            template[i] = 0xFF000000 | ((pixel >> 1) & 0x7F7F7F);
+        }
+        List<ChimpRect> matches = locate(image, template, rect, 0.9);
+        assertEquals(rect, matches.get(0));
+    }
+
+    @Test
+    public void missingTemplate() {
+        int[] image = blocks(WIDTH, HEIGHT, 5);
+        ChimpRect size = new ChimpRect(0, 0, 40, 40);
+        assertEquals(0, locate(image, blocks(40, 40, 6), size, 0.9).size());
+    }
+
+    @Test
+    public void flatTemplate() {
+        int[] image = blocks(WIDTH, HEIGHT, 7);
+        int[] white = new int[20 * 20];
+        Arrays.fill(white, 0xFFFFFFFF);
+        paste(image, WIDTH, white, 20, 100, 100);
+        List<ChimpRect> matches = locate(image, white, new ChimpRect(0, 0, 20, 20), 0.99);
+        assertEquals(Arrays.asList(new ChimpRect(100, 100, 120, 120)), matches);
+    }
+
+    @Test
+    public void templatesThatCannotFit() {
+        int[] image = blocks(WIDTH, HEIGHT, 8);
+        assertEquals(0, TemplateMatcher.locate(image, WIDTH, HEIGHT, new int[0], 0, 0, 0.5)
+                .size());
+        int[] wide = new int[(WIDTH + 1) * 2];
+        assertEquals(0, TemplateMatcher.locate(image, WIDTH, HEIGHT, wide, WIDTH + 1, 2, 0.5)
+                .size());
+    }
+}